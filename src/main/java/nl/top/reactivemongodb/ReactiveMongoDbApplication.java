@@ -2,8 +2,10 @@ package nl.top.reactivemongodb;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class ReactiveMongoDbApplication {
 
     public static void main(String[] args) {
@@ -6,17 +6,20 @@ import nl.top.reactivemongodb.domain.BeerStyle;
 import nl.top.reactivemongodb.domain.Customer;
 import nl.top.reactivemongodb.repositories.BeerRepository;
 import nl.top.reactivemongodb.repositories.CustomerRepository;
+import nl.top.reactivemongodb.services.InventorySummaryService;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.stereotype.Component;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.List;
 
 @Component
 @RequiredArgsConstructor
 public class BootstrapData implements CommandLineRunner {
     private final BeerRepository beerRepository;
     private final CustomerRepository customerRepository;
+    private final InventorySummaryService inventorySummaryService;
 
     @Override
     public void run(String... args) {
@@ -61,9 +64,10 @@ public class BootstrapData implements CommandLineRunner {
                         .lastModifiedDate(LocalDateTime.now())
                         .build();
 
-                beerRepository.save(beer1).subscribe();//it is required to subscribe to every save as it returns a mono which we have to subscribe to do persist the data
-                beerRepository.save(beer2).subscribe();//each save operation returns a mono which needs to be subscribed to persist the data
-                beerRepository.save(beer3).subscribe();
+                //saveAll returns a flux which also needs to be subscribed to persist the data
+                beerRepository.saveAll(List.of(beer1, beer2, beer3))
+                        .then(inventorySummaryService.reconcile())//these saves bypass the service, so the summary is rebuilt
+                        .subscribe();
             }
         });
     }
@@ -0,0 +1,40 @@
+package nl.top.reactivemongodb.bootstrap;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import nl.top.reactivemongodb.domain.Beer;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.aggregation.ConvertOperators;
+import org.springframework.data.mongodb.core.schema.JsonSchemaObject;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+//prices used to be stored as strings, which sort and compare as text
+//converts what is left of them in place so the price range filters see every beer, a no-op once done
+@Slf4j
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+@RequiredArgsConstructor
+public class DecimalPriceMigration implements CommandLineRunner {
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    private final ReactiveMongoTemplate reactiveMongoTemplate;
+
+    @Override
+    public void run(String... args) {
+        AggregationUpdate toDecimal = AggregationUpdate.update()
+                .set("price").toValue(ConvertOperators.valueOf("price").convertToDecimal());
+        reactiveMongoTemplate.updateMulti(query(where("price").type(JsonSchemaObject.Type.stringType())), toDecimal, Beer.class)
+                .filter(result -> result.getModifiedCount() > 0)
+                .doOnNext(result -> log.info("Converted {} beer prices to Decimal128", result.getModifiedCount()))
+                .block(TIMEOUT);
+    }
+}
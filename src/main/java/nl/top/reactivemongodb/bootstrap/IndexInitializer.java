@@ -0,0 +1,142 @@
+package nl.top.reactivemongodb.bootstrap;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import nl.top.reactivemongodb.domain.Beer;
+import nl.top.reactivemongodb.domain.BeerStyle;
+import nl.top.reactivemongodb.domain.Customer;
+import nl.top.reactivemongodb.domain.Tombstone;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.index.ReactiveIndexOperations;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+//runs before the other runners so the indexes exist before any data is loaded or queried
+@Slf4j
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@RequiredArgsConstructor
+public class IndexInitializer implements CommandLineRunner {
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    public enum Verification { OFF, WARN, FAIL }
+
+    //the same filters the derived repository queries send, probe values don't matter for the plan
+    private static final List<QueryProbe> PROBES = List.of(
+            new QueryProbe("BeerRepository.findFirstByBeerName", Beer.class,
+                    query(where("beerName").is("probe")).limit(1)),
+            new QueryProbe("BeerRepository.findByBeerStyle", Beer.class,
+                    query(where("beerStyle").is(BeerStyle.IPA))),
+            new QueryProbe("BeerFilterCompiler.minPrice+maxPrice", Beer.class,
+                    query(where("price").gte(BigDecimal.ONE).lte(BigDecimal.TEN))),
+            new QueryProbe("BeerService.listBeers beerStyle+sort=price", Beer.class,
+                    query(where("beerStyle").is(BeerStyle.IPA)).with(Sort.by("price")).limit(20)),
+            new QueryProbe("CustomerService.listCustomers sort=lastModifiedDate,desc", Customer.class,
+                    new Query().with(Sort.by(Sort.Direction.DESC, "lastModifiedDate")).limit(20)),
+            new QueryProbe("ChangeFeed.changesSince", Beer.class,
+                    query(where("lastModifiedDate").gt(LocalDateTime.of(2024, 1, 1, 0, 0))).with(Sort.by("lastModifiedDate", "id")).limit(50)),
+            new QueryProbe("ChangeFeed.deletedBetween", Tombstone.class,
+                    query(where("entityType").is("beer").and("deletedDate").gt(LocalDateTime.of(2024, 1, 1, 0, 0))).with(Sort.by("deletedDate"))),
+            new QueryProbe("CustomerRepository.findFirstByCustomerName", Customer.class,
+                    query(where("customerName").is("probe")).limit(1)));
+
+    private final ReactiveMongoTemplate reactiveMongoTemplate;
+    @Value("${app.indexes.verify:WARN}")
+    private Verification verification = Verification.WARN;
+
+    private record QueryProbe(String name, Class<?> entityClass, Query query) {
+    }
+
+    @Override
+    public void run(String... args) {
+        //automatic index creation is off by default in Spring Data, the @Indexed and @CompoundIndex definitions are applied here
+        Flux.just(Beer.class, Customer.class, Tombstone.class)
+                .concatMap(this::ensureIndexes)
+                .doOnNext(index -> log.info("Ensured index {}", index))
+                .then()
+                .block(TIMEOUT);
+        if (verification != Verification.OFF) {
+            verifyQueryPlans();
+        }
+    }
+
+    private Flux<String> ensureIndexes(Class<?> entityClass) {
+        MongoPersistentEntityIndexResolver resolver = new MongoPersistentEntityIndexResolver(
+                reactiveMongoTemplate.getConverter().getMappingContext());
+        ReactiveIndexOperations indexOps = reactiveMongoTemplate.indexOps(entityClass);
+        return Flux.fromIterable(resolver.resolveIndexFor(entityClass))
+                .concatMap(indexOps::ensureIndex);
+    }
+
+    private void verifyQueryPlans() {
+        List<String> unindexed = Flux.fromIterable(PROBES)
+                .filterWhen(probe -> explain(probe).map(explain -> usesCollectionScan(explain) || usesInMemorySort(explain)))
+                .map(QueryProbe::name)
+                .collectList()
+                .block(TIMEOUT);
+        if (unindexed == null || unindexed.isEmpty()) {
+            return;
+        }
+        String message = "Queries without a usable index (COLLSCAN or in-memory SORT): " + unindexed;
+        if (verification == Verification.FAIL) {
+            throw new IllegalStateException(message);
+        }
+        log.warn(message);
+    }
+
+    private Mono<Document> explain(QueryProbe probe) {
+        //maps field names and converts values (enums to strings) exactly as the repository would
+        QueryMapper queryMapper = new QueryMapper(reactiveMongoTemplate.getConverter());
+        MongoPersistentEntity<?> entity = reactiveMongoTemplate.getConverter().getMappingContext()
+                .getPersistentEntity(probe.entityClass());
+        Document filter = queryMapper.getMappedObject(probe.query().getQueryObject(), entity);
+        Document sort = queryMapper.getMappedSort(probe.query().getSortObject(), entity);
+        return reactiveMongoTemplate.getCollection(reactiveMongoTemplate.getCollectionName(probe.entityClass()))
+                .flatMap(collection -> Mono.from(collection.find(filter).sort(sort).limit(probe.query().getLimit()).explain()));
+    }
+
+    //walks the whole winning plan, the COLLSCAN stage can be nested under a FETCH/LIMIT or per shard
+    static boolean usesCollectionScan(Document explain) {
+        return winningPlanContains(explain, "COLLSCAN");
+    }
+
+    //a SORT stage means the documents were sorted in memory instead of read in index order
+    static boolean usesInMemorySort(Document explain) {
+        return winningPlanContains(explain, "SORT");
+    }
+
+    private static boolean winningPlanContains(Document explain, String stageName) {
+        Document queryPlanner = explain.get("queryPlanner", new Document());
+        return containsStage(queryPlanner.get("winningPlan"), stageName);
+    }
+
+    private static boolean containsStage(Object plan, String stageName) {
+        if (plan instanceof Document stage) {
+            return stageName.equals(stage.get("stage"))
+                    || stage.values().stream().anyMatch(value -> containsStage(value, stageName));
+        }
+        if (plan instanceof List<?> stages) {
+            return stages.stream().anyMatch(value -> containsStage(value, stageName));
+        }
+        return false;
+    }
+}
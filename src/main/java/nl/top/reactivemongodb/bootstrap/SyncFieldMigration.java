@@ -0,0 +1,50 @@
+package nl.top.reactivemongodb.bootstrap;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import nl.top.reactivemongodb.domain.Beer;
+import nl.top.reactivemongodb.domain.Customer;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+//fills in the fields older documents were written without, a no-op once done
+//version 0, otherwise a save would take them for new and their ETag would have no version in it
+//lastModifiedDate, otherwise the changes-since endpoints would never return them
+@Slf4j
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 2)
+@RequiredArgsConstructor
+public class SyncFieldMigration implements CommandLineRunner {
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    private final ReactiveMongoTemplate reactiveMongoTemplate;
+
+    @Override
+    public void run(String... args) {
+        Flux.just(Beer.class, Customer.class)
+                .concatMap(entityClass -> setWhereMissing(entityClass, "version", 0L)
+                        .then(setWhereMissing(entityClass, "lastModifiedDate", LocalDateTime.now())))
+                .then()
+                .block(TIMEOUT);
+    }
+
+    private Mono<Void> setWhereMissing(Class<?> entityClass, String field, Object value) {
+        return reactiveMongoTemplate.updateMulti(query(where(field).exists(false)), new Update().set(field, value), entityClass)
+                .filter(result -> result.getModifiedCount() > 0)
+                .doOnNext(result -> log.info("Set {} on {} {} documents", field, result.getModifiedCount(),
+                        entityClass.getSimpleName()))
+                .then();
+    }
+}
@@ -0,0 +1,50 @@
+package nl.top.reactivemongodb.changestream;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import nl.top.reactivemongodb.domain.Beer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+
+import java.util.function.Predicate;
+
+//fans the change stream on the beer collection out to every client of the live feed
+//the stream is the one the cache listener follows, so its resume token and reopening are handled there
+@Component
+@ConditionalOnProperty(name = "app.change-streams.enabled", havingValue = "true")
+public class BeerChangeBroadcaster {
+
+    public enum Overflow {
+        //keeps the newest events up to the client buffer size
+        DROP_OLDEST,
+        //keeps only the newest event, enough for a client that watches one beer
+        LATEST
+    }
+
+    private final Flux<ChangeEvent<Beer>> changes;
+    private final int clientBufferSize;
+    private final Counter droppedEvents;
+
+    public BeerChangeBroadcaster(CacheChangeStreamListener cacheChangeStreamListener, MeterRegistry meterRegistry,
+                                 @Value("${app.beer-feed.client-buffer-size:256}") int clientBufferSize) {
+        this.clientBufferSize = clientBufferSize;
+        this.droppedEvents = Counter.builder("beer.feed.dropped")
+                .description("Beer changes dropped because a client of the live feed could not keep up")
+                .register(meterRegistry);
+        this.changes = cacheChangeStreamListener.beerChanges();
+    }
+
+    //every client requests unbounded from the shared stream, so a slow client overflows its own buffer
+    //instead of holding back the others
+    public Flux<ChangeEvent<Beer>> subscribe(Predicate<ChangeEvent<Beer>> filter, Overflow overflow) {
+        Flux<ChangeEvent<Beer>> matching = changes.filter(filter);
+        return switch (overflow) {
+            case DROP_OLDEST -> matching.onBackpressureBuffer(clientBufferSize, dropped -> droppedEvents.increment(),
+                    BufferOverflowStrategy.DROP_OLDEST);
+            case LATEST -> matching.onBackpressureLatest();
+        };
+    }
+}
@@ -0,0 +1,149 @@
+package nl.top.reactivemongodb.changestream;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import nl.top.reactivemongodb.domain.Beer;
+import nl.top.reactivemongodb.domain.Customer;
+import nl.top.reactivemongodb.domain.ResumeToken;
+import nl.top.reactivemongodb.repositories.ResumeTokenRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+//keeps the local caches in line with writes done by the other instances of this service
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "app.change-streams.enabled", havingValue = "true")
+public class CacheChangeStreamListener {
+    public static final String BEER_COLLECTION = "beer";
+    public static final String CUSTOMER_COLLECTION = "customer";
+    private static final Duration MIN_BACKOFF = Duration.ofSeconds(1);
+    private static final Duration MAX_BACKOFF = Duration.ofMinutes(1);
+
+    private final ChangeEventSource changeEventSource;
+    private final ResumeTokenRepository resumeTokenRepository;
+    private final AsyncCache<String, Beer> beerCache;
+    private final AsyncCache<String, Customer> customerCache;
+    private final Disposable.Composite subscriptions = Disposables.composite();
+    //latest token per collection that has been applied but not yet stored
+    private final Map<String, String> pendingTokens = new ConcurrentHashMap<>();
+    //latest token per collection that has been applied, a reopened stream goes on from here rather than the stored one
+    private final Map<String, String> latestTokens = new ConcurrentHashMap<>();
+    @Value("${app.change-streams.token-save-interval:5s}")
+    private Duration tokenSaveInterval = Duration.ofSeconds(5);
+    //the one stream on the beer collection, the live beer feed reads it too, so it carries the full document
+    private final Flux<ChangeEvent<Beer>> beerChanges;
+
+    public CacheChangeStreamListener(ChangeEventSource changeEventSource, ResumeTokenRepository resumeTokenRepository,
+                                     AsyncCache<String, Beer> beerCache, AsyncCache<String, Customer> customerCache) {
+        this.changeEventSource = changeEventSource;
+        this.resumeTokenRepository = resumeTokenRepository;
+        this.beerCache = beerCache;
+        this.customerCache = customerCache;
+        this.beerChanges = follow(BEER_COLLECTION, Beer.class, beerCache, true)
+                .publish()
+                .refCount();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        subscriptions.add(beerChanges.subscribe());
+        subscriptions.add(follow(CUSTOMER_COLLECTION, Customer.class, customerCache, false).subscribe());
+        //replaying a few seconds of invalidations after a restart is harmless, a write per event is not
+        subscriptions.add(Flux.interval(tokenSaveInterval)
+                .concatMap(tick -> saveTokens())
+                .subscribe());
+    }
+
+    @PreDestroy
+    public void stop() {
+        subscriptions.dispose();
+        saveTokens().blockLast(Duration.ofSeconds(5));
+    }
+
+    //every beer change after it has been applied to the cache, see BeerChangeBroadcaster
+    public Flux<ChangeEvent<Beer>> beerChanges() {
+        return beerChanges;
+    }
+
+    <T> Flux<ChangeEvent<T>> follow(String collectionName, Class<T> type, AsyncCache<String, T> cache, boolean fullDocument) {
+        //deferred so every retry resumes from the latest token, the stored one is only read after a restart
+        //a stored token from before an invalidate would replay it and end the stream again
+        return Flux.defer(() -> Mono.justOrEmpty(latestTokens.get(collectionName))
+                        .switchIfEmpty(resumeTokenRepository.findById(collectionName).mapNotNull(ResumeToken::getToken))
+                        .map(Optional::of)
+                        .defaultIfEmpty(Optional.empty())
+                        .flatMapMany(token -> changeEventSource.listen(collectionName, type, token.orElse(null), fullDocument)))
+                .doOnNext(event -> {
+                    apply(cache, event);
+                    if (event.getResumeToken() != null) {
+                        latestTokens.put(collectionName, event.getResumeToken());
+                        pendingTokens.put(collectionName, event.getResumeToken());
+                    }
+                })
+                .onErrorResume(changeEventSource::isHistoryLost, error -> forgetToken(collectionName, cache).then(Mono.error(error)))
+                .doOnError(error -> log.warn("Change stream on {} failed, resuming", collectionName, error))
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, MIN_BACKOFF).maxBackoff(MAX_BACKOFF))
+                //the stream completes after an invalidate, it is reopened after that event instead of staying closed
+                .repeatWhen(ended -> reopenDelays(ended).concatMap(Mono::delay));
+    }
+
+    //the same backoff as a failure, started over when the stream delivered events before it ended
+    static Flux<Duration> reopenDelays(Flux<Long> eventsBeforeEnd) {
+        return eventsBeforeEnd
+                .scan(Duration.ZERO, (delay, events) -> events > 0 || delay.isZero() ? MIN_BACKOFF
+                        : delay.multipliedBy(2).compareTo(MAX_BACKOFF) > 0 ? MAX_BACKOFF : delay.multipliedBy(2))
+                .skip(1);
+    }
+
+    //the events after the stored token are gone, the stream starts at the current point in time
+    //whatever those events changed may still be cached, so the whole cache goes
+    private <T> Mono<Void> forgetToken(String collectionName, AsyncCache<String, T> cache) {
+        log.warn("Change stream on {} can't resume from its token, starting over from now", collectionName);
+        latestTokens.remove(collectionName);
+        pendingTokens.remove(collectionName);
+        cache.synchronous().invalidateAll();
+        return resumeTokenRepository.deleteById(collectionName);
+    }
+
+    //an event can be older than a write this instance just cached, so entries are dropped rather than replaced
+    private static <T> void apply(AsyncCache<String, T> cache, ChangeEvent<T> event) {
+        switch (event.getType()) {
+            case UPSERT, DELETE -> {
+                if (event.getId() != null) {
+                    cache.synchronous().invalidate(event.getId());
+                }
+            }
+            case INVALIDATE -> cache.synchronous().invalidateAll();
+        }
+    }
+
+    Flux<ResumeToken> saveTokens() {
+        return Flux.fromIterable(Map.copyOf(pendingTokens).entrySet())
+                .concatMap(entry -> {
+                    pendingTokens.remove(entry.getKey(), entry.getValue());
+                    return resumeTokenRepository.save(ResumeToken.builder()
+                                    .id(entry.getKey())
+                                    .token(entry.getValue())
+                                    .build())
+                            .onErrorResume(error -> {
+                                pendingTokens.putIfAbsent(entry.getKey(), entry.getValue());
+                                log.warn("Could not store resume token for {}", entry.getKey(), error);
+                                return Mono.empty();
+                            });
+                });
+    }
+}
@@ -0,0 +1,27 @@
+package nl.top.reactivemongodb.changestream;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ChangeEvent<T> {
+
+    public enum Type {
+        //insert, update or replace of a single document
+        UPSERT,
+        DELETE,
+        //drop, rename or invalidate: anything we knew about the collection is stale
+        INVALIDATE
+    }
+
+    private Type type;
+    private String id;
+    //only filled when the full document was requested and still exists
+    private T document;
+    private String resumeToken;
+}
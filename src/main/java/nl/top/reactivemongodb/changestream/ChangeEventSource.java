@@ -0,0 +1,14 @@
+package nl.top.reactivemongodb.changestream;
+
+import reactor.core.publisher.Flux;
+
+public interface ChangeEventSource {
+
+    //resumeToken may be null to start at the current point in time
+    <T> Flux<ChangeEvent<T>> listen(String collectionName, Class<T> type, String resumeToken, boolean fullDocument);
+
+    //true when resuming from the same token can never succeed again, the caller has to start without one
+    default boolean isHistoryLost(Throwable error) {
+        return false;
+    }
+}
@@ -0,0 +1,83 @@
+package nl.top.reactivemongodb.changestream;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import lombok.RequiredArgsConstructor;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.ChangeStreamEvent;
+import org.springframework.data.mongodb.core.ChangeStreamOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.util.Set;
+
+@Component
+@RequiredArgsConstructor
+public class MongoChangeEventSource implements ChangeEventSource {
+    //ChangeStreamHistoryLost, and ChangeStreamFatalError that older servers answer with for a token no longer in the oplog
+    private static final Set<Integer> HISTORY_LOST_CODES = Set.of(286, 280);
+
+    private final ReactiveMongoTemplate reactiveMongoTemplate;
+
+    //change streams need a replica set or sharded cluster, a standalone mongod answers with an error
+    @Override
+    public <T> Flux<ChangeEvent<T>> listen(String collectionName, Class<T> type, String resumeToken, boolean fullDocument) {
+        ChangeStreamOptions.ChangeStreamOptionsBuilder options = ChangeStreamOptions.builder();
+        if (fullDocument) {
+            options.fullDocumentLookup(FullDocument.UPDATE_LOOKUP);
+        }
+        //startAfter also takes the token of an invalidate event, resumeAfter refuses that one
+        if (resumeToken != null) {
+            options.startAfter(BsonDocument.parse(resumeToken));
+        }
+        return reactiveMongoTemplate.changeStream(null, collectionName, options.build(), type)
+                .map(MongoChangeEventSource::toChangeEvent);
+    }
+
+    @Override
+    public boolean isHistoryLost(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof MongoException mongoException && HISTORY_LOST_CODES.contains(mongoException.getCode())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static <T> ChangeEvent<T> toChangeEvent(ChangeStreamEvent<T> event) {
+        ChangeStreamDocument<Document> raw = event.getRaw();
+        BsonValue resumeToken = event.getResumeToken();
+        return ChangeEvent.<T>builder()
+                .type(typeOf(event.getOperationType()))
+                .id(raw != null && raw.getDocumentKey() != null ? idOf(raw.getDocumentKey().get("_id")) : null)
+                .document(event.getBody())
+                .resumeToken(resumeToken != null ? resumeToken.asDocument().toJson() : null)
+                .build();
+    }
+
+    private static ChangeEvent.Type typeOf(OperationType operationType) {
+        if (operationType == null) {
+            return ChangeEvent.Type.INVALIDATE;
+        }
+        return switch (operationType) {
+            case INSERT, UPDATE, REPLACE -> ChangeEvent.Type.UPSERT;
+            case DELETE -> ChangeEvent.Type.DELETE;
+            default -> ChangeEvent.Type.INVALIDATE;
+        };
+    }
+
+    private static String idOf(BsonValue id) {
+        if (id == null) {
+            return null;
+        }
+        if (id.isObjectId()) {
+            return id.asObjectId().getValue().toHexString();
+        }
+        return id.isString() ? id.asString().getValue() : id.toString();
+    }
+}
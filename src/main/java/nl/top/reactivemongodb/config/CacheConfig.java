@@ -0,0 +1,47 @@
+package nl.top.reactivemongodb.config;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import nl.top.reactivemongodb.domain.Beer;
+import nl.top.reactivemongodb.domain.Customer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+public class CacheConfig {
+
+    @Value("${app.cache.maximum-size:10000}")
+    private long maximumSize;
+    @Value("${app.cache.expire-after-write:10m}")
+    private Duration expireAfterWrite;
+
+    @Bean
+    public AsyncCache<String, Beer> beerCache(MeterRegistry meterRegistry) {
+        return monitor(newCache(), "beers", meterRegistry);
+    }
+
+    @Bean
+    public AsyncCache<String, Customer> customerCache(MeterRegistry meterRegistry) {
+        return monitor(newCache(), "customers", meterRegistry);
+    }
+
+    //the async cache keeps the in-flight future per key, so concurrent misses for one id share a single findById
+    private <V> AsyncCache<String, V> newCache() {
+        return Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .buildAsync();
+    }
+
+    //publishes cache.gets (hit/miss), cache.evictions, cache.size etc. tagged with the cache name
+    private static <V> AsyncCache<String, V> monitor(AsyncCache<String, V> cache, String cacheName, MeterRegistry meterRegistry) {
+        CaffeineCacheMetrics.monitor(meterRegistry, cache.synchronous(), cacheName);
+        return cache;
+    }
+}
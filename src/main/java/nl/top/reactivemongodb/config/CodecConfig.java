@@ -0,0 +1,64 @@
+package nl.top.reactivemongodb.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.reactivestreams.Publisher;
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.codec.cbor.Jackson2CborDecoder;
+import org.springframework.http.codec.cbor.Jackson2CborEncoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.codec.json.Jackson2SmileDecoder;
+import org.springframework.http.codec.json.Jackson2SmileEncoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.util.MimeType;
+import reactor.core.publisher.Flux;
+
+import java.util.Map;
+
+import static nl.top.reactivemongodb.web.fn.config.GenericRouterConfig.APPLICATION_SMILE;
+import static org.springframework.http.MediaType.APPLICATION_CBOR;
+
+@Configuration
+public class CodecConfig {
+
+    //CBOR and Smile next to JSON, picked by the Accept and Content-Type headers
+    //the binary mappers come from the same builder as the JSON one, so dates and the like are written the same way
+    //the media types are passed explicitly, the codecs fall back to the JSON ones when given a mapper without them
+    //ordered after the customizer of Spring Boot, which would otherwise replace the metered JSON encoder
+    @Bean
+    @Order(1)
+    public CodecCustomizer binaryCodecs(ObjectMapper objectMapper, Jackson2ObjectMapperBuilder jacksonBuilder,
+                                        MeterRegistry meterRegistry) {
+        ObjectMapper cborMapper = jacksonBuilder.factory(new CBORFactory()).build();
+        ObjectMapper smileMapper = jacksonBuilder.factory(new SmileFactory()).build();
+        return configurer -> {
+            configurer.defaultCodecs().jackson2JsonEncoder(
+                    new MeteredEncoder(new Jackson2JsonEncoder(objectMapper), "json", meterRegistry));
+            configurer.defaultCodecs().jackson2SmileEncoder(meteredSmileEncoder(smileMapper, meterRegistry));
+            configurer.defaultCodecs().jackson2SmileDecoder(new Jackson2SmileDecoder(smileMapper, APPLICATION_SMILE));
+            configurer.customCodecs().register(
+                    new MeteredEncoder(new Jackson2CborEncoder(cborMapper, APPLICATION_CBOR), "cbor", meterRegistry));
+            configurer.customCodecs().register(new Jackson2CborDecoder(cborMapper, APPLICATION_CBOR));
+        };
+    }
+
+    //the default Smile encoder has to be a Jackson2SmileEncoder, so the metering goes into a subclass
+    private static Jackson2SmileEncoder meteredSmileEncoder(ObjectMapper smileMapper, MeterRegistry meterRegistry) {
+        MeteredEncoder metered = new MeteredEncoder(new Jackson2SmileEncoder(smileMapper, APPLICATION_SMILE), "smile", meterRegistry);
+        return new Jackson2SmileEncoder(smileMapper, APPLICATION_SMILE) {
+            @Override
+            public Flux<DataBuffer> encode(Publisher<?> inputStream, DataBufferFactory bufferFactory,
+                                           ResolvableType elementType, MimeType mimeType, Map<String, Object> hints) {
+                return metered.encode(inputStream, bufferFactory, elementType, mimeType, hints);
+            }
+        };
+    }
+}
@@ -0,0 +1,46 @@
+package nl.top.reactivemongodb.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import nl.top.reactivemongodb.domain.Beer;
+import nl.top.reactivemongodb.domain.Customer;
+import nl.top.reactivemongodb.repositories.BeerRepository;
+import nl.top.reactivemongodb.repositories.CustomerRepository;
+import nl.top.reactivemongodb.services.BatchingLoader;
+import nl.top.reactivemongodb.services.RequestCoalescer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+public class LookupConfig {
+
+    @Value("${app.batching.max-batch-size:100}")
+    private int maxBatchSize;
+    @Value("${app.batching.window:2ms}")
+    private Duration batchWindow;
+
+    //lookups by id are already shared through the in-flight futures of the caches in CacheConfig
+    @Bean
+    public RequestCoalescer<String, Beer> beerNameCoalescer(MeterRegistry meterRegistry) {
+        return new RequestCoalescer<>("beerByName", meterRegistry);
+    }
+
+    @Bean
+    public RequestCoalescer<String, Customer> customerNameCoalescer(MeterRegistry meterRegistry) {
+        return new RequestCoalescer<>("customerByName", meterRegistry);
+    }
+
+    @Bean
+    public BatchingLoader<String, Beer> beerBatchLoader(BeerRepository beerRepository, MeterRegistry meterRegistry) {
+        return new BatchingLoader<>("beerById", beerRepository::findAllById, Beer::getId,
+                maxBatchSize, batchWindow, meterRegistry);
+    }
+
+    @Bean
+    public BatchingLoader<String, Customer> customerBatchLoader(CustomerRepository customerRepository, MeterRegistry meterRegistry) {
+        return new BatchingLoader<>("customerById", customerRepository::findAllById, Customer::getId,
+                maxBatchSize, batchWindow, meterRegistry);
+    }
+}
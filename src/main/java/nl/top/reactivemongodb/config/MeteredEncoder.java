@@ -0,0 +1,120 @@
+package nl.top.reactivemongodb.config;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.HttpMessageEncoder;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.util.MimeType;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+//publishes the encode time and size of every single-value response body per format, so formats can be compared
+//on real payloads: http.server.encode and http.server.encode.size, tagged with the format and the type of the body
+//a Flux is left to the delegate, which writes it element by element, and so is the data of a server-sent event
+public class MeteredEncoder implements HttpMessageEncoder<Object> {
+
+    private record Meters(Timer encodeTimer, DistributionSummary encodedSize) {
+    }
+
+    private final HttpMessageEncoder<Object> delegate;
+    private final String format;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Meters> meters = new ConcurrentHashMap<>();
+
+    public MeteredEncoder(HttpMessageEncoder<Object> delegate, String format, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.format = format;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public boolean canEncode(ResolvableType elementType, MimeType mimeType) {
+        return delegate.canEncode(elementType, mimeType);
+    }
+
+    @Override
+    public Flux<DataBuffer> encode(Publisher<?> inputStream, DataBufferFactory bufferFactory, ResolvableType elementType,
+                                   MimeType mimeType, Map<String, Object> hints) {
+        if (!(inputStream instanceof Mono<?> mono)) {
+            return delegate.encode(inputStream, bufferFactory, elementType, mimeType, hints);
+        }
+        return mono.map(value -> {
+            Meters valueMeters = meters.computeIfAbsent(typeTag(elementType, value), this::meters);
+            long start = System.nanoTime();
+            DataBuffer buffer = delegate.encodeValue(value, bufferFactory, elementType, mimeType, hints);
+            valueMeters.encodeTimer().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            valueMeters.encodedSize().record(buffer.readableByteCount());
+            return buffer;
+        }).flux();
+    }
+
+    @Override
+    public DataBuffer encodeValue(Object value, DataBufferFactory bufferFactory, ResolvableType valueType,
+                                  MimeType mimeType, Map<String, Object> hints) {
+        return delegate.encodeValue(value, bufferFactory, valueType, mimeType, hints);
+    }
+
+    //a list page is tagged with its element type, BeerDTO[], so the list sizes can be told apart per resource
+    //bodyValue passes the runtime class only, so without a declared element type the first element decides
+    static String typeTag(ResolvableType type, Object value) {
+        if (value instanceof Collection<?> collection) {
+            Class<?> elementClass = type.asCollection().resolveGeneric(0);
+            if (elementClass == null || elementClass == Object.class) {
+                elementClass = collection.stream().filter(Objects::nonNull).findFirst().<Class<?>>map(Object::getClass)
+                        .orElse(Object.class);
+            }
+            return elementClass.getSimpleName() + "[]";
+        }
+        Class<?> declared = type.resolve();
+        return (declared == null || declared == Object.class ? value.getClass() : declared).getSimpleName();
+    }
+
+    private Meters meters(String type) {
+        return new Meters(Timer.builder("http.server.encode")
+                .description("Time to serialize one response body")
+                .tag("format", format)
+                .tag("type", type)
+                .register(meterRegistry),
+                DistributionSummary.builder("http.server.encode.size")
+                        .description("Size of one serialized response body")
+                        .baseUnit("bytes")
+                        .tag("format", format)
+                        .tag("type", type)
+                        .register(meterRegistry));
+    }
+
+    @Override
+    public List<MimeType> getEncodableMimeTypes() {
+        return delegate.getEncodableMimeTypes();
+    }
+
+    @Override
+    public List<MimeType> getEncodableMimeTypes(ResolvableType elementType) {
+        return delegate.getEncodableMimeTypes(elementType);
+    }
+
+    @Override
+    public List<MediaType> getStreamingMediaTypes() {
+        return delegate.getStreamingMediaTypes();
+    }
+
+    @Override
+    public Map<String, Object> getEncodeHints(ResolvableType actualType, ResolvableType elementType, MediaType mediaType,
+                                              ServerHttpRequest request, ServerHttpResponse response) {
+        return delegate.getEncodeHints(actualType, elementType, mediaType, request, response);
+    }
+}
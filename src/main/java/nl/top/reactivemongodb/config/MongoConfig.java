@@ -8,10 +8,12 @@ import com.mongodb.reactivestreams.client.MongoClients;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.mongodb.config.AbstractReactiveMongoConfiguration;
+import org.springframework.data.mongodb.config.EnableReactiveMongoAuditing;
 
 import static java.util.Collections.singletonList;
 
 @Configuration
+@EnableReactiveMongoAuditing//createdDate and lastModifiedDate on save and insert, the list ETags depend on it
 public class MongoConfig extends AbstractReactiveMongoConfiguration {
 
     @Override
@@ -0,0 +1,22 @@
+package nl.top.reactivemongodb.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.config.Customizer;
+import org.springframework.security.config.annotation.rsocket.EnableRSocketSecurity;
+import org.springframework.security.config.annotation.rsocket.RSocketSecurity;
+import org.springframework.security.rsocket.core.PayloadSocketAcceptorInterceptor;
+
+@Configuration
+@EnableRSocketSecurity
+public class RSocketSecurityConfig {
+
+    //the same JWTs as the HTTP endpoints, sent as bearer token metadata with the setup or with each request
+    @Bean
+    PayloadSocketAcceptorInterceptor rsocketInterceptor(RSocketSecurity rsocket) {
+        rsocket.authorizePayload(authorize -> authorize.anyExchange().authenticated())
+                .jwt(Customizer.withDefaults());
+
+        return rsocket.build();
+    }
+}
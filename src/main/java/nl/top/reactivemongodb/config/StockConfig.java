@@ -0,0 +1,25 @@
+package nl.top.reactivemongodb.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import nl.top.reactivemongodb.services.StockDeltaWriter;
+import nl.top.reactivemongodb.services.WriteBehindBuffer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+public class StockConfig {
+
+    @Value("${app.stock.write-behind.max-pending:1000}")
+    private int maxPending;
+    @Value("${app.stock.write-behind.flush-interval:1s}")
+    private Duration flushInterval;
+
+    //closed by Spring on shutdown, which writes whatever is still pending
+    @Bean
+    public WriteBehindBuffer<String> stockDeltaBuffer(StockDeltaWriter stockDeltaWriter, MeterRegistry meterRegistry) {
+        return new WriteBehindBuffer<>("stock", stockDeltaWriter::write, maxPending, flushInterval, meterRegistry);
+    }
+}
@@ -7,7 +7,14 @@ import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.LastModifiedDate;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.index.TextIndexed;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.FieldType;
+import org.springframework.data.mongodb.core.mapping.TextScore;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
@@ -17,16 +24,33 @@ import java.time.LocalDateTime;
 @AllArgsConstructor
 @Builder
 @Document
+//findByBeerStyle uses the prefix of the compound index, findFirstByBeerName the beerName index
+@CompoundIndex(name = "beerStyle_beerName", def = "{'beerStyle': 1, 'beerName': 1}")
+//beerStyle=IPA&sort=price reads the IPAs in price order without a SORT stage
+@CompoundIndex(name = "beerStyle_price", def = "{'beerStyle': 1, 'price': 1}")
+//the changes-since order, its prefix also serves the modifiedSince filter and the collection version
+@CompoundIndex(name = "lastModifiedDate_id", def = "{'lastModifiedDate': 1, '_id': 1}")
 public class Beer {
     @Id//this is required otherwise the savedBeer will not have an id
     private String id;
+    @Indexed
+    @TextIndexed//a collection has one text index, it only covers the name
     private String beerName;
     private BeerStyle beerStyle;
+    @Indexed
     private String upc;
     private Integer quantityOnHand;
+    //taken out of quantityOnHand by a reservation, only changed through the stock operations
+    private Integer quantityReserved;
+    @Indexed
+    @Field(targetType = FieldType.DECIMAL128)//a string would compare as text in range filters
     private BigDecimal price;
     @CreatedDate
     private LocalDateTime createdDate;
     @LastModifiedDate
     private LocalDateTime lastModifiedDate;
+    @Version//incremented by every write, it is the ETag and the If-Match condition of the endpoints
+    private Long version;
+    @TextScore//only filled by a text search, never stored
+    private Float score;
 }
@@ -7,7 +7,12 @@ import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.LastModifiedDate;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.index.TextIndexed;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.TextScore;
 
 import java.time.LocalDateTime;
 
@@ -16,12 +21,20 @@ import java.time.LocalDateTime;
 @AllArgsConstructor
 @Builder
 @Document
+//the changes-since order, its prefix also serves the collection version
+@CompoundIndex(name = "lastModifiedDate_id", def = "{'lastModifiedDate': 1, '_id': 1}")
 public class Customer {
     @Id
     private String id;
+    @Indexed
+    @TextIndexed
     private String customerName;
     @CreatedDate
     private LocalDateTime createdDate;
     @LastModifiedDate
     private LocalDateTime lastModifiedDate;
+    @Version//incremented by every write, it is the ETag and the If-Match condition of the endpoints
+    private Long version;
+    @TextScore//only filled by a text search, never stored
+    private Float score;
 }
@@ -0,0 +1,31 @@
+package nl.top.reactivemongodb.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.FieldType;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Document
+public class InventorySummary {
+    public static final String ALL = "ALL";
+
+    @Id//the BeerStyle name, or ALL for the whole catalog
+    private String id;
+    private long beerCount;
+    private long totalQuantityOnHand;
+    //sum of price * quantityOnHand, stored as Decimal128 so it can be moved with $inc
+    @Field(targetType = FieldType.DECIMAL128)
+    private BigDecimal totalStockValue;
+    private LocalDateTime lastModifiedDate;
+}
@@ -0,0 +1,25 @@
+package nl.top.reactivemongodb.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.LastModifiedDate;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Document
+public class ResumeToken {
+    @Id//the name of the watched collection, one token per change stream
+    private String id;
+    //the change stream resume token as extended JSON
+    private String token;
+    @LastModifiedDate
+    private LocalDateTime lastModifiedDate;
+}
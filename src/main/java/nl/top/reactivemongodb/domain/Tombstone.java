@@ -0,0 +1,36 @@
+package nl.top.reactivemongodb.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+//left behind by a delete so the changes-since endpoints can tell clients which ids are gone
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Document
+@CompoundIndex(name = "entityType_deletedDate", def = "{'entityType': 1, 'deletedDate': 1}")
+//the upsert of a delete finds the tombstone of the same id through this one
+@CompoundIndex(name = "entityType_entityId", def = "{'entityType': 1, 'entityId': 1}")
+public class Tombstone {
+    //a client whose watermark is older than this has missed deletes and has to sync from scratch
+    public static final String RETENTION = "30d";
+
+    @Id
+    private String id;
+    //the collection the deleted document was in
+    private String entityType;
+    private String entityId;
+    //the version the deleted document had, a document saved again under the id continues after it
+    private Long version;
+    @Indexed(expireAfter = RETENTION)//TTL, Mongo removes the tombstone after the retention
+    private LocalDateTime deletedDate;
+}
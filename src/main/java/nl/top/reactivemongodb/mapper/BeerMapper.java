@@ -3,11 +3,16 @@ package nl.top.reactivemongodb.mapper;
 import nl.top.reactivemongodb.domain.Beer;
 import nl.top.reactivemongodb.model.BeerDTO;
 import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
 
 @Mapper
 public interface BeerMapper {
 
     BeerDTO beerToBeerDTO(Beer beer);
 
+    //the reserved quantity only changes through the stock operations, a client can't set it
+    @Mapping(target = "quantityReserved", ignore = true)
+    //the text score is only filled by a search, a DTO has none
+    @Mapping(target = "score", ignore = true)
     Beer beerDTOtoBeer(BeerDTO beerDTO);
 }
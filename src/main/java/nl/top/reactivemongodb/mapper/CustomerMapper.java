@@ -3,10 +3,13 @@ package nl.top.reactivemongodb.mapper;
 import nl.top.reactivemongodb.domain.Customer;
 import nl.top.reactivemongodb.model.CustomerDTO;
 import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
 
 @Mapper
 public interface CustomerMapper {
 
+    //the text score is only filled by a search, a DTO has none
+    @Mapping(target = "score", ignore = true)
     Customer customerDTOtoCustomer(CustomerDTO customerDTO);
 
     CustomerDTO customerToCustomerDTO(Customer customer);
@@ -0,0 +1,13 @@
+package nl.top.reactivemongodb.mapper;
+
+import nl.top.reactivemongodb.domain.InventorySummary;
+import nl.top.reactivemongodb.model.InventorySummaryDTO;
+import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
+
+@Mapper
+public interface InventorySummaryMapper {
+
+    @Mapping(target = "scope", source = "id")
+    InventorySummaryDTO inventorySummaryToInventorySummaryDTO(InventorySummary inventorySummary);
+}
@@ -0,0 +1,14 @@
+package nl.top.reactivemongodb.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchItemError {
+    //position of the item in the request body
+    private long index;
+    private String message;
+}
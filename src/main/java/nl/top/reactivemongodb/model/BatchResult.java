@@ -0,0 +1,28 @@
+package nl.top.reactivemongodb.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchResult {
+    private long received;
+    private long succeeded;
+    private List<BatchItemError> failures = new ArrayList<>();
+
+    public void addFailure(long index, String message) {
+        failures.add(new BatchItemError(index, message));
+    }
+
+    public BatchResult merge(BatchResult other) {
+        received += other.getReceived();
+        succeeded += other.getSucceeded();
+        failures.addAll(other.getFailures());
+        return this;
+    }
+}
@@ -27,10 +27,13 @@ public class BeerDTO {
     @Size(max = 25)
     private String upc;
     private Integer quantityOnHand;
+    //read only, ignored in a request body
+    private Integer quantityReserved;
     private BigDecimal price;
     @CreatedDate
     private LocalDateTime createdDate;
     @LastModifiedDate
     private LocalDateTime lastModifiedDate;
+    private Long version;
 }
 
@@ -0,0 +1,23 @@
+package nl.top.reactivemongodb.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import nl.top.reactivemongodb.domain.BeerStyle;
+
+import java.math.BigDecimal;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class BeerStyleStatsDTO {
+    private BeerStyle beerStyle;
+    private long count;
+    //beers without a price are left out of the price figures but still counted
+    private BigDecimal minPrice;
+    private BigDecimal avgPrice;
+    private BigDecimal maxPrice;
+    private long totalQuantityOnHand;
+}
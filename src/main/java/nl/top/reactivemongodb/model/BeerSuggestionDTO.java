@@ -0,0 +1,15 @@
+package nl.top.reactivemongodb.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class BeerSuggestionDTO {
+    private String id;
+    private String beerName;
+}
@@ -0,0 +1,23 @@
+package nl.top.reactivemongodb.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ChangeSet<T> {
+    //created or updated since the watermark the client sent, oldest first
+    private List<T> changed;
+    //ids deleted since that watermark
+    private List<String> deleted;
+    //goes back as since= on the next request
+    private String watermark;
+    //changed was cut off at the page size, the next request continues right away
+    private boolean hasMore;
+}
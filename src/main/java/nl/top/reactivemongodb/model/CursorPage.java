@@ -0,0 +1,46 @@
+package nl.top.reactivemongodb.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.bson.types.ObjectId;
+import org.springframework.web.server.ServerWebInputException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CursorPage<T> {
+    private List<T> content;
+    //null when this is the last page
+    private String nextCursor;
+
+    //expects pageSize + 1 items so we know whether another page exists without a count query
+    public static <T> CursorPage<T> of(List<T> items, int pageSize, Function<T, String> idExtractor) {
+        if (items.size() <= pageSize) {
+            return new CursorPage<>(items, null);
+        }
+        List<T> content = items.subList(0, pageSize);
+        return new CursorPage<>(content, encodeCursor(idExtractor.apply(content.get(pageSize - 1))));
+    }
+
+    public static String encodeCursor(String id) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(id.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static String decodeCursor(String cursor) {
+        try {
+            String id = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            if (ObjectId.isValid(id)) {
+                return id;
+            }
+        } catch (IllegalArgumentException ignored) {
+            //fall through to the input exception below
+        }
+        throw new ServerWebInputException("Invalid cursor " + cursor);
+    }
+}
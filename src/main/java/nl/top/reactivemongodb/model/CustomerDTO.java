@@ -25,6 +25,7 @@ public class CustomerDTO {
     private LocalDateTime createdDate;
     @LastModifiedDate
     private LocalDateTime lastModifiedDate;
+    private Long version;
 
 }
 
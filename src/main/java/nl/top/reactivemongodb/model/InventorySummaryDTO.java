@@ -0,0 +1,22 @@
+package nl.top.reactivemongodb.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class InventorySummaryDTO {
+    //a BeerStyle name, or ALL for the whole catalog
+    private String scope;
+    private long beerCount;
+    private long totalQuantityOnHand;
+    private BigDecimal totalStockValue;
+    private LocalDateTime lastModifiedDate;
+}
@@ -0,0 +1,34 @@
+package nl.top.reactivemongodb.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MultiGetResult<T> {
+    //in the order the ids were requested
+    private List<T> items;
+    private List<String> missing;
+
+    public static <E, T> MultiGetResult<T> of(Collection<String> requestedIds, Map<String, E> found, Function<E, T> mapper) {
+        List<T> items = new ArrayList<>();
+        List<String> missing = new ArrayList<>();
+        for (String id : requestedIds) {
+            E entity = found.get(id);
+            if (entity != null) {
+                items.add(mapper.apply(entity));
+            } else {
+                missing.add(id);
+            }
+        }
+        return new MultiGetResult<>(items, missing);
+    }
+}
@@ -0,0 +1,16 @@
+package nl.top.reactivemongodb.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class StockLevelDTO {
+    private String beerId;
+    private Integer quantityOnHand;
+    private Integer quantityReserved;
+}
@@ -2,6 +2,8 @@ package nl.top.reactivemongodb.repositories;
 
 import nl.top.reactivemongodb.domain.Beer;
 import nl.top.reactivemongodb.domain.BeerStyle;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.core.query.TextCriteria;
 import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -11,4 +13,7 @@ public interface BeerRepository extends ReactiveMongoRepository<Beer, String> {
     Mono<Beer> findFirstByBeerName(String beerName);
 
     Flux<Beer> findByBeerStyle(BeerStyle beerStyle);
+
+    //uses the text index on beerName, sort by score to get the most relevant beers first
+    Flux<Beer> findAllBy(TextCriteria criteria, Pageable pageable);
 }
@@ -1,10 +1,16 @@
 package nl.top.reactivemongodb.repositories;
 
 import nl.top.reactivemongodb.domain.Customer;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.core.query.TextCriteria;
 import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 public interface CustomerRepository extends ReactiveMongoRepository<Customer, String> {
     Mono<Customer> findFirstByCustomerName(String customerName);
 
+    //uses the text index on customerName, sort by score to get the most relevant customers first
+    Flux<Customer> findAllBy(TextCriteria criteria, Pageable pageable);
+
 }
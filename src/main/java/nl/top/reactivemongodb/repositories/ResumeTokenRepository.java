@@ -0,0 +1,7 @@
+package nl.top.reactivemongodb.repositories;
+
+import nl.top.reactivemongodb.domain.ResumeToken;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+
+public interface ResumeTokenRepository extends ReactiveMongoRepository<ResumeToken, String> {
+}
@@ -0,0 +1,118 @@
+package nl.top.reactivemongodb.services;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+//DataLoader style: lookups arriving within one window are sent to Mongo as a single $in query
+public class BatchingLoader<K, V> implements AutoCloseable {
+    private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(10);
+
+    private record PendingLookup<K, V>(K key, Sinks.One<V> result) {
+    }
+
+    private final Sinks.Many<PendingLookup<K, V>> pending = Sinks.many().unicast().onBackpressureBuffer();
+    //lookups wait here until one caller hands them to the sink, which takes one emitter at a time
+    private final Queue<PendingLookup<K, V>> queued = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger drainers = new AtomicInteger();
+    private volatile boolean closed;
+    private final Function<Collection<K>, Flux<V>> batchLoader;
+    private final Function<V, K> keyExtractor;
+    private final int maxBatchSize;
+    private final DistributionSummary fillRatio;
+    private final Sinks.Empty<Void> stopped = Sinks.empty();
+
+    public BatchingLoader(String name, Function<Collection<K>, Flux<V>> batchLoader, Function<V, K> keyExtractor,
+                          int maxBatchSize, Duration window, MeterRegistry meterRegistry) {
+        this.batchLoader = batchLoader;
+        this.keyExtractor = keyExtractor;
+        this.maxBatchSize = maxBatchSize;
+        this.fillRatio = DistributionSummary.builder("batch.loader.fill.ratio")
+                .description("Keys per batch relative to the maximum batch size")
+                .tag("name", name)
+                .register(meterRegistry);
+        //a batch goes out when it is full or when the window since its first lookup has passed
+        //when the sink completes the last partial batch is still dispatched before the worker stops
+        pending.asFlux()
+                .bufferTimeout(maxBatchSize, window)
+                .flatMap(this::dispatch)
+                .doFinally(signal -> stopped.tryEmitEmpty())
+                .subscribe();
+    }
+
+    public Mono<V> load(K key) {
+        return Mono.defer(() -> {
+            Sinks.One<V> result = Sinks.one();
+            queued.offer(new PendingLookup<>(key, result));
+            drain();
+            return result.asMono();
+        });
+    }
+
+    //callers arrive on many threads at once, the first one in emits everything queued, also what the others add meanwhile
+    //the others return right away instead of spinning on the sink
+    private void drain() {
+        if (drainers.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            PendingLookup<K, V> lookup;
+            while ((lookup = queued.poll()) != null) {
+                if (pending.tryEmitNext(lookup).isFailure()) {
+                    lookup.result().tryEmitError(new IllegalStateException("The batching loader is closed"));
+                }
+            }
+            //completed by the drainer, the sink must not be completed while another thread emits into it
+            if (closed) {
+                pending.tryEmitComplete();
+            }
+            missed = drainers.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private Mono<Void> dispatch(List<PendingLookup<K, V>> batch) {
+        fillRatio.record((double) batch.size() / maxBatchSize);
+        Set<K> keys = batch.stream()
+                .map(PendingLookup::key)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        return batchLoader.apply(keys)
+                .collectMap(keyExtractor)
+                .doOnNext(found -> batch.forEach(lookup -> complete(lookup, found)))
+                .doOnError(error -> batch.forEach(lookup -> lookup.result().tryEmitError(error)))
+                .onErrorResume(error -> Mono.empty())
+                .then();
+    }
+
+    private void complete(PendingLookup<K, V> lookup, Map<K, V> found) {
+        V value = found.get(lookup.key());
+        if (value != null) {
+            lookup.result().tryEmitValue(value);
+        } else {
+            lookup.result().tryEmitEmpty();
+        }
+    }
+
+    //called by Spring on shutdown, lookups already waiting for their window are sent instead of left hanging
+    //lookups that arrive afterwards fail right away
+    @Override
+    public void close() {
+        closed = true;
+        drain();
+        stopped.asMono().block(CLOSE_TIMEOUT);
+    }
+}
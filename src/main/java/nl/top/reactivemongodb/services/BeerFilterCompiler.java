@@ -0,0 +1,122 @@
+package nl.top.reactivemongodb.services;
+
+import nl.top.reactivemongodb.domain.Beer;
+import nl.top.reactivemongodb.domain.BeerStyle;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.server.ServerWebInputException;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+//turns the filter query parameters of the beer list into one Mongo query, so filtering never happens in the application
+@Component
+public class BeerFilterCompiler {
+    //parameters that share the query string with the filters
+    private static final Set<String> NON_FILTER_PARAMETERS = Set.of("cursor", "size", "sort", "fields");
+
+    private enum Operator { EQ, IN, GTE, LTE }
+
+    private record FilterParameter(String field, Operator operator, Function<String, Object> parser) {
+    }
+
+    //the whitelist, anything else in the query string is rejected
+    private static final Map<String, FilterParameter> PARAMETERS = Map.of(
+            "beerStyle", new FilterParameter("beerStyle", Operator.IN, BeerStyle::valueOf),
+            "beerName", new FilterParameter("beerName", Operator.EQ, value -> value),
+            "upc", new FilterParameter("upc", Operator.EQ, value -> value),
+            "minPrice", new FilterParameter("price", Operator.GTE, BigDecimal::new),
+            "maxPrice", new FilterParameter("price", Operator.LTE, BigDecimal::new),
+            "minQuantityOnHand", new FilterParameter("quantityOnHand", Operator.GTE, Integer::valueOf),
+            "maxQuantityOnHand", new FilterParameter("quantityOnHand", Operator.LTE, Integer::valueOf),
+            "modifiedSince", new FilterParameter("lastModifiedDate", Operator.GTE, LocalDateTime::parse));
+
+    //fields that lead one of the declared indexes, at least one of them has to be in every filter
+    private final Set<String> indexedFields;
+    //sorted parameter names -> the validated parameters, bounded by the size of the whitelist
+    private final Map<List<String>, List<String>> shapes = new ConcurrentHashMap<>();
+
+    public BeerFilterCompiler(IndexedFields indexedFields) {
+        this.indexedFields = indexedFields.leadingFields(Beer.class);
+    }
+
+    public Query compile(Map<String, List<String>> queryParameters) {
+        List<String> shape = shapes.computeIfAbsent(queryParameters.keySet().stream()
+                .filter(name -> !NON_FILTER_PARAMETERS.contains(name))
+                .sorted()
+                .toList(), this::validateShape);
+        //parameters on the same field (minPrice and maxPrice) end up in one criteria
+        Map<String, Criteria> criteria = new LinkedHashMap<>();
+        for (String name : shape) {
+            FilterParameter parameter = PARAMETERS.get(name);
+            List<Object> values = values(name, queryParameters.get(name), parameter);
+            Criteria fieldCriteria = criteria.computeIfAbsent(parameter.field(), Criteria::where);
+            switch (parameter.operator()) {
+                case EQ -> fieldCriteria.is(single(name, values));
+                case IN -> fieldCriteria.in(values);
+                case GTE -> fieldCriteria.gte(single(name, values));
+                case LTE -> fieldCriteria.lte(single(name, values));
+            }
+        }
+        Query query = new Query();
+        criteria.values().forEach(query::addCriteria);
+        return query;
+    }
+
+    //invalid shapes throw, so they are never cached
+    private List<String> validateShape(List<String> names) {
+        List<String> unknown = names.stream().filter(name -> !PARAMETERS.containsKey(name)).toList();
+        if (!unknown.isEmpty()) {
+            throw new ServerWebInputException("Unknown filter " + String.join(", ", unknown)
+                    + ", supported are " + String.join(", ", PARAMETERS.keySet().stream().sorted().toList()));
+        }
+        if (!names.isEmpty() && names.stream().noneMatch(name -> indexedFields.contains(PARAMETERS.get(name).field()))) {
+            throw new ServerWebInputException("Filter " + String.join(", ", names)
+                    + " needs at least one filter on an indexed field: " + indexedFilters());
+        }
+        return names;
+    }
+
+    private String indexedFilters() {
+        return PARAMETERS.entrySet().stream()
+                .filter(entry -> indexedFields.contains(entry.getValue().field()))
+                .map(Map.Entry::getKey)
+                .sorted()
+                .collect(Collectors.joining(", "));
+    }
+
+    //accepts name=a,b as well as name=a&name=b
+    private static List<Object> values(String name, List<String> rawValues, FilterParameter parameter) {
+        try {
+            List<Object> values = rawValues.stream()
+                    .flatMap(value -> Arrays.stream(value.split(",")))
+                    .map(String::trim)
+                    .filter(StringUtils::hasText)
+                    .map(parameter.parser())
+                    .toList();
+            if (!values.isEmpty()) {
+                return values;
+            }
+        } catch (RuntimeException e) {
+            //falls through to the same 400 as an empty value
+        }
+        throw new ServerWebInputException("Invalid value for " + name + ": " + rawValues);
+    }
+
+    private static Object single(String name, List<Object> values) {
+        if (values.size() != 1) {
+            throw new ServerWebInputException("Filter " + name + " takes exactly one value");
+        }
+        return values.get(0);
+    }
+}
@@ -0,0 +1,154 @@
+package nl.top.reactivemongodb.services;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import nl.top.reactivemongodb.domain.Beer;
+import nl.top.reactivemongodb.model.BeerSuggestionDTO;
+import nl.top.reactivemongodb.repositories.BeerRepository;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+//in-memory prefix index over the beer names for type-ahead, answered without a round trip to Mongo
+//writes of this instance are applied as they happen, the periodic rebuild picks up everything else
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class BeerNameIndex {
+    private static final char SEPARATOR = '\u0000';
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern NOT_PRINTABLE = Pattern.compile("\\p{Cntrl}+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final BeerRepository beerRepository;
+    private volatile Index index = new Index();
+    //the writes made while a rebuild reads the beers, one list per running rebuild, guarded by the lock
+    private final Set<List<Consumer<Index>>> rebuildWrites = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Object lock = new Object();
+
+    private static final class Index {
+        //normalized name + separator + id, sorted so all names with one prefix are a single contiguous range
+        private final ConcurrentSkipListMap<String, String> names = new ConcurrentSkipListMap<>();
+        private final Map<String, String> keysById = new ConcurrentHashMap<>();
+
+        private void put(Beer beer) {
+            if (beer.getBeerName() == null) {
+                remove(beer.getId());
+                return;
+            }
+            String key = normalize(beer.getBeerName()) + SEPARATOR + beer.getId();
+            String previousKey = keysById.put(beer.getId(), key);
+            if (previousKey != null && !previousKey.equals(key)) {
+                names.remove(previousKey);
+            }
+            names.put(key, beer.getBeerName());
+        }
+
+        private void remove(String beerId) {
+            String key = keysById.remove(beerId);
+            if (key != null) {
+                names.remove(key);
+            }
+        }
+    }
+
+    public void put(Beer beer) {
+        if (beer.getId() != null) {
+            write(index -> index.put(beer));
+        }
+    }
+
+    public void remove(String beerId) {
+        write(index -> index.remove(beerId));
+    }
+
+    //a rebuild may have read the beer before this write, so the write is replayed on the new index before the swap
+    private void write(Consumer<Index> write) {
+        synchronized (lock) {
+            write.accept(index);
+            rebuildWrites.forEach(writes -> writes.add(write));
+        }
+    }
+
+    public int size() {
+        return index.keysById.size();
+    }
+
+    //the first names in alphabetical order that start with the prefix, ignoring case and accents
+    public List<BeerSuggestionDTO> complete(String prefix, int limit) {
+        String normalized = normalize(prefix);
+        List<BeerSuggestionDTO> suggestions = new ArrayList<>(limit);
+        if (normalized.isEmpty()) {
+            return suggestions;
+        }
+        for (Map.Entry<String, String> entry : index.names
+                .subMap(normalized, true, normalized + Character.MAX_VALUE, false).entrySet()) {
+            if (suggestions.size() == limit) {
+                break;
+            }
+            String key = entry.getKey();
+            suggestions.add(new BeerSuggestionDTO(key.substring(key.lastIndexOf(SEPARATOR) + 1), entry.getValue()));
+        }
+        return suggestions;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        rebuild().subscribe();
+    }
+
+    //@Scheduled takes milliseconds or an ISO-8601 duration
+    @Scheduled(initialDelayString = "${app.autocomplete.rebuild-interval:PT10M}",
+            fixedDelayString = "${app.autocomplete.rebuild-interval:PT10M}")
+    public void scheduledRebuild() {
+        rebuild().block();
+    }
+
+    //builds a new index next to the one in use and swaps it in when complete
+    public Mono<Void> rebuild() {
+        return Mono.defer(() -> {
+            List<Consumer<Index>> writes = new ArrayList<>();
+            synchronized (lock) {
+                rebuildWrites.add(writes);
+            }
+            return beerRepository.findAll()
+                    .collect(Index::new, Index::put)
+                    .doOnNext(rebuilt -> {
+                        synchronized (lock) {
+                            writes.forEach(write -> write.accept(rebuilt));
+                            index = rebuilt;
+                        }
+                        log.info("Beer name index rebuilt with {} names", rebuilt.keysById.size());
+                    })
+                    .doFinally(signal -> {
+                        synchronized (lock) {
+                            rebuildWrites.remove(writes);
+                        }
+                    });
+        })
+                .doOnError(error -> log.warn("Could not rebuild the beer name index", error))
+                .onErrorResume(error -> Mono.empty())
+                .then();
+    }
+
+    static String normalize(String name) {
+        String decomposed = Normalizer.normalize(name, Normalizer.Form.NFD);
+        String plain = NOT_PRINTABLE.matcher(MARKS.matcher(decomposed).replaceAll("")).replaceAll("");
+        return WHITESPACE.matcher(plain.trim()).replaceAll(" ").toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,62 @@
+package nl.top.reactivemongodb.services;
+
+import nl.top.reactivemongodb.domain.Beer;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.util.StringUtils;
+import org.springframework.web.server.ServerWebInputException;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+//fields= on the beer list, only the requested properties are read from Mongo and written to the response
+public final class BeerProjection {
+    //the properties of BeerDTO, read straight from the projected document so BeerMapper is skipped
+    private static final Map<String, Function<Beer, Object>> FIELDS = Map.of(
+            "id", Beer::getId,
+            "beerName", Beer::getBeerName,
+            "beerStyle", Beer::getBeerStyle,
+            "upc", Beer::getUpc,
+            "quantityOnHand", Beer::getQuantityOnHand,
+            "quantityReserved", Beer::getQuantityReserved,
+            "price", Beer::getPrice,
+            "createdDate", Beer::getCreatedDate,
+            "lastModifiedDate", Beer::getLastModifiedDate,
+            "version", Beer::getVersion);
+
+    private final List<String> fields;
+
+    private BeerProjection(List<String> fields) {
+        this.fields = fields;
+    }
+
+    //accepts fields=id,beerName as well as fields=id&fields=beerName, the response keeps the requested order
+    public static BeerProjection of(List<String> requested) {
+        List<String> fields = requested.stream()
+                .flatMap(value -> Arrays.stream(value.split(",")))
+                .map(String::trim)
+                .filter(StringUtils::hasText)
+                .distinct()
+                .toList();
+        List<String> unknown = fields.stream().filter(field -> !FIELDS.containsKey(field)).toList();
+        if (fields.isEmpty() || !unknown.isEmpty()) {
+            throw new ServerWebInputException("Invalid fields " + unknown + ", supported are "
+                    + String.join(", ", FIELDS.keySet().stream().sorted().toList()));
+        }
+        return new BeerProjection(fields);
+    }
+
+    //_id comes back even when it is not requested, the cursor of the next page is taken from it
+    public Query applyTo(Query query) {
+        fields.forEach(query.fields()::include);
+        return query;
+    }
+
+    public Map<String, Object> apply(Beer beer) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        fields.forEach(field -> values.put(field, FIELDS.get(field).apply(beer)));
+        return values;
+    }
+}
@@ -1,25 +1,98 @@
 package nl.top.reactivemongodb.services;
 
+import nl.top.reactivemongodb.changestream.BeerChangeBroadcaster;
+import nl.top.reactivemongodb.changestream.ChangeEvent;
 import nl.top.reactivemongodb.domain.BeerStyle;
+import nl.top.reactivemongodb.model.BatchResult;
 import nl.top.reactivemongodb.model.BeerDTO;
+import nl.top.reactivemongodb.model.BeerStyleStatsDTO;
+import nl.top.reactivemongodb.model.BeerSuggestionDTO;
+import nl.top.reactivemongodb.model.ChangeSet;
+import nl.top.reactivemongodb.model.CursorPage;
+import nl.top.reactivemongodb.model.MultiGetResult;
+import nl.top.reactivemongodb.model.StockLevelDTO;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
 public interface BeerService {
     Flux<BeerDTO> listBeers();
+
+    Mono<CursorPage<BeerDTO>> listBeers(String cursor, int pageSize);
+
+    //the filter is the query string of the list endpoint, see BeerFilterCompiler for what it supports
+    //a sorted list is the first pageSize beers in sort order, the cursor only walks the unsorted list
+    Mono<CursorPage<BeerDTO>> listBeers(Map<String, List<String>> filter, Sort sort, String cursor, int pageSize);
+
+    Flux<BeerDTO> listBeers(Map<String, List<String>> filter, Sort sort);
+
+    //the same list with only the requested properties per beer, see BeerProjection
+    Mono<CursorPage<Map<String, Object>>> listBeerFields(Map<String, List<String>> filter, Sort sort, List<String> fields,
+                                                         String cursor, int pageSize);
+
+    Flux<Map<String, Object>> listBeerFields(Map<String, List<String>> filter, Sort sort, List<String> fields);
+
+    //beers changed and deleted after the watermark, null starts from the beginning, see ChangeFeed
+    Mono<ChangeSet<BeerDTO>> getChangesSince(String watermark, int limit);
+
+    //live changes of the given beers or styles, empty collections match every beer, see BeerChangeBroadcaster
+    Flux<ChangeEvent<BeerDTO>> watchBeers(Collection<String> beerIds, Collection<BeerStyle> beerStyles,
+                                          BeerChangeBroadcaster.Overflow overflow);
+
+    //changes with every write to the beers, see CollectionVersions
+    Mono<String> getListVersion();
+
     Flux<BeerDTO> findByBeerStyle(BeerStyle beerStyle);
 
     Mono<BeerDTO> findFirstByBeerName(String beerName);
 
+    //relevance ordered, page is zero based
+    Mono<Slice<BeerDTO>> searchBeers(String text, int page, int pageSize);
+
+    //served from memory, alphabetical, ignores case and accents
+    Flux<BeerSuggestionDTO> autocompleteBeerName(String prefix, int limit);
+
+    //from is inclusive, to is exclusive, either can be null
+    Flux<BeerStyleStatsDTO> getBeerStyleStats(LocalDateTime from, LocalDateTime to);
+
     Mono<BeerDTO> saveBeer(Mono<BeerDTO> beerDTO);
 
     Mono<BeerDTO> saveBeer(BeerDTO beerDTO);
 
+    Mono<BatchResult> saveBeers(Flux<BeerDTO> beerDTOs);
+
     Mono<BeerDTO> getBeerById(String beerId);
 
+    Mono<MultiGetResult<BeerDTO>> getBeersByIds(Collection<String> beerIds);
+
     Mono<BeerDTO> updateBeer(String beerId, BeerDTO beerDTO);
 
+    //the write only happens while the beer is at one of the expected versions (If-Match), otherwise 412
+    Mono<BeerDTO> updateBeer(String beerId, BeerDTO beerDTO, Collection<Long> expectedVersions);
+
     Mono<BeerDTO> patchBeerById(String beerId, BeerDTO beerDTO);
 
+    Mono<BeerDTO> patchBeerById(String beerId, BeerDTO beerDTO, Collection<Long> expectedVersions);
+
     Mono<Void> deleteBeerById(String beerId);
+
+    Mono<Void> deleteBeerById(String beerId, Collection<Long> expectedVersions);
+
+    //each stock operation is one conditional $inc and emits the stock levels after the move
+    Mono<StockLevelDTO> incrementStock(String beerId, int quantity);
+
+    //fails with 409 when quantityOnHand is lower than the quantity
+    Mono<StockLevelDTO> decrementStock(String beerId, int quantity);
+
+    //moves the quantity from quantityOnHand to quantityReserved, fails with 409 like decrementStock
+    Mono<StockLevelDTO> reserveStock(String beerId, int quantity);
+
+    //signed delta, with write-behind enabled it is buffered and nothing is emitted
+    Mono<StockLevelDTO> adjustStock(String beerId, int delta);
 }
@@ -1,10 +1,39 @@
 package nl.top.reactivemongodb.services;
 
+import com.github.benmanes.caffeine.cache.AsyncCache;
 import lombok.RequiredArgsConstructor;
+import nl.top.reactivemongodb.changestream.BeerChangeBroadcaster;
+import nl.top.reactivemongodb.changestream.ChangeEvent;
+import nl.top.reactivemongodb.domain.Beer;
 import nl.top.reactivemongodb.domain.BeerStyle;
 import nl.top.reactivemongodb.mapper.BeerMapper;
+import nl.top.reactivemongodb.model.BatchResult;
 import nl.top.reactivemongodb.model.BeerDTO;
+import nl.top.reactivemongodb.model.BeerStyleStatsDTO;
+import nl.top.reactivemongodb.model.BeerSuggestionDTO;
+import nl.top.reactivemongodb.model.ChangeSet;
+import nl.top.reactivemongodb.model.CursorPage;
+import nl.top.reactivemongodb.model.MultiGetResult;
+import nl.top.reactivemongodb.model.StockLevelDTO;
 import nl.top.reactivemongodb.repositories.BeerRepository;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.convert.UpdateMapper;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.TextCriteria;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.validation.BeanPropertyBindingResult;
@@ -15,6 +44,24 @@ import org.springframework.web.server.ServerWebInputException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.group;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.match;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.newAggregation;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.project;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.sort;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
 import static org.springframework.util.StringUtils.hasText;
 
 @Service
@@ -23,6 +70,25 @@ public class BeerServiceImpl implements BeerService {
     private final BeerMapper beerMapper;
     private final BeerRepository beerRepository;
     private final Validator validator;
+    private final ReactiveMongoTemplate reactiveMongoTemplate;
+    private final AsyncCache<String, Beer> beerCache;
+    private final RequestCoalescer<String, Beer> beerNameCoalescer;
+    private final BatchingLoader<String, Beer> beerBatchLoader;
+    private final InventorySummaryService inventorySummaryService;
+    private final WriteBehindBuffer<String> stockDeltaBuffer;
+    private final BeerNameIndex beerNameIndex;
+    private final BeerFilterCompiler beerFilterCompiler;
+    private final IndexedFields indexedFields;
+    private final CollectionVersions collectionVersions;
+    private final ChangeFeed changeFeed;
+    //only there when change streams are enabled
+    private final ObjectProvider<BeerChangeBroadcaster> beerChangeBroadcaster;
+    @Value("${app.batch.chunk-size:500}")
+    private int batchChunkSize;
+    @Value("${app.batching.enabled:false}")
+    private boolean batchingEnabled;
+    @Value("${app.stock.write-behind.enabled:false}")
+    private boolean stockWriteBehind;
 
     private void validate(BeerDTO beerDTO) {
         Errors errors = new BeanPropertyBindingResult(beerDTO, "beerDTO");
@@ -37,6 +103,103 @@ public class BeerServiceImpl implements BeerService {
         return beerRepository.findAll().map(beerMapper::beerToBeerDTO);
     }
 
+    @Override
+    public Mono<CursorPage<BeerDTO>> listBeers(String cursor, int pageSize) {
+        return listBeers(Map.of(), Sort.unsorted(), cursor, pageSize);
+    }
+
+    @Override
+    public Mono<CursorPage<BeerDTO>> listBeers(Map<String, List<String>> filter, Sort sort, String cursor, int pageSize) {
+        return findPage(beerFilterCompiler.compile(filter), sort, cursor, pageSize, beerMapper::beerToBeerDTO);
+    }
+
+    @Override
+    public Flux<BeerDTO> listBeers(Map<String, List<String>> filter, Sort sort) {
+        return Mono.fromCallable(() -> beerFilterCompiler.compile(filter))
+                .flatMapMany(query -> reactiveMongoTemplate.find(query.with(indexedFields.requireIndexed(Beer.class, query, sort)), Beer.class))
+                .map(beerMapper::beerToBeerDTO);
+    }
+
+    @Override
+    public Mono<CursorPage<Map<String, Object>>> listBeerFields(Map<String, List<String>> filter, Sort sort,
+                                                                List<String> fields, String cursor, int pageSize) {
+        BeerProjection projection = BeerProjection.of(fields);
+        return findPage(projection.applyTo(beerFilterCompiler.compile(filter)), sort, cursor, pageSize, projection::apply);
+    }
+
+    @Override
+    public Flux<Map<String, Object>> listBeerFields(Map<String, List<String>> filter, Sort sort, List<String> fields) {
+        return Mono.fromCallable(() -> BeerProjection.of(fields))
+                .flatMapMany(projection -> {
+                    Query query = projection.applyTo(beerFilterCompiler.compile(filter));
+                    return reactiveMongoTemplate.find(query.with(indexedFields.requireIndexed(Beer.class, query, sort)), Beer.class)
+                            .map(projection::apply);
+                });
+    }
+
+    private <T> Mono<CursorPage<T>> findPage(Query query, Sort sort, String cursor, int pageSize, Function<Beer, T> mapper) {
+        if (sort.isSorted()) {
+            if (hasText(cursor)) {
+                throw new ServerWebInputException("A cursor can not be combined with sort");
+            }
+            //sort and limit go to Mongo together, the index is read in order and stops after pageSize beers
+            return reactiveMongoTemplate.find(query.with(indexedFields.requireIndexed(Beer.class, query, sort)).limit(pageSize), Beer.class)
+                    .map(mapper)
+                    .collectList()
+                    .map(beers -> new CursorPage<>(beers, null));
+        }
+        //range query on the _id index instead of skip/limit, one extra item tells us if there is a next page
+        query.with(Sort.by(Sort.Direction.ASC, "id")).limit(pageSize + 1);
+        if (hasText(cursor)) {
+            query.addCriteria(where("id").gt(CursorPage.decodeCursor(cursor)));
+        }
+        return reactiveMongoTemplate.find(query, Beer.class)
+                .collectList()
+                .map(beers -> CursorPage.of(beers, pageSize, Beer::getId))
+                .map(page -> new CursorPage<>(page.getContent().stream().map(mapper).toList(), page.getNextCursor()));
+    }
+
+    @Override
+    public Mono<ChangeSet<BeerDTO>> getChangesSince(String watermark, int limit) {
+        return changeFeed.changesSince(Beer.class, watermark, limit, beerMapper::beerToBeerDTO, Beer::getId,
+                Beer::getLastModifiedDate);
+    }
+
+    @Override
+    public Flux<ChangeEvent<BeerDTO>> watchBeers(Collection<String> beerIds, Collection<BeerStyle> beerStyles,
+                                                 BeerChangeBroadcaster.Overflow overflow) {
+        BeerChangeBroadcaster broadcaster = beerChangeBroadcaster.getIfAvailable();
+        if (broadcaster == null) {
+            return Flux.error(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                    "The live feed needs change streams, see app.change-streams.enabled"));
+        }
+        Set<String> ids = Set.copyOf(beerIds);
+        Set<BeerStyle> styles = Set.copyOf(beerStyles);
+        return broadcaster.subscribe(event -> matches(event, ids, styles), overflow)
+                .map(event -> ChangeEvent.<BeerDTO>builder()
+                        .type(event.getType())
+                        .id(event.getId())
+                        .document(event.getDocument() != null ? beerMapper.beerToBeerDTO(event.getDocument()) : null)
+                        .resumeToken(event.getResumeToken())
+                        .build());
+    }
+
+    //a delete carries no document, so a client that filters on style gets every delete and skips unknown ids
+    private static boolean matches(ChangeEvent<Beer> event, Set<String> ids, Set<BeerStyle> styles) {
+        if (event.getType() == ChangeEvent.Type.INVALIDATE) {
+            return true;
+        }
+        if (!ids.isEmpty() && !ids.contains(event.getId())) {
+            return false;
+        }
+        return styles.isEmpty() || event.getDocument() == null || styles.contains(event.getDocument().getBeerStyle());
+    }
+
+    @Override
+    public Mono<String> getListVersion() {
+        return collectionVersions.versionOf(Beer.class);
+    }
+
     @Override
     public Flux<BeerDTO> findByBeerStyle(BeerStyle beerStyle) {
         return beerRepository.findByBeerStyle(beerStyle).map(beerMapper::beerToBeerDTO);
@@ -44,81 +207,338 @@ public class BeerServiceImpl implements BeerService {
 
     @Override
     public Mono<BeerDTO> findFirstByBeerName(String beerName) {
-        return beerRepository.findFirstByBeerName(beerName)
+        return beerNameCoalescer.execute(beerName, beerRepository::findFirstByBeerName)
                 .map(beerMapper::beerToBeerDTO);
     }
 
+    @Override
+    public Flux<BeerStyleStatsDTO> getBeerStyleStats(LocalDateTime from, LocalDateTime to) {
+        Criteria lastModified = where("lastModifiedDate");
+        if (from != null) {
+            lastModified.gte(from);
+        }
+        if (to != null) {
+            lastModified.lt(to);
+        }
+        List<AggregationOperation> stages = new ArrayList<>();
+        if (from != null || to != null) {
+            stages.add(match(lastModified));
+        }
+        //price is a Decimal128, DecimalPriceMigration converts the old string prices before the app serves
+        stages.add(group("beerStyle")
+                .count().as("count")
+                .min("price").as("minPrice")
+                .avg("price").as("avgPrice")
+                .max("price").as("maxPrice")
+                .sum("quantityOnHand").as("totalQuantityOnHand"));
+        stages.add(project("count", "minPrice", "avgPrice", "maxPrice", "totalQuantityOnHand")
+                .and("beerStyle").previousOperation());
+        stages.add(sort(Sort.Direction.ASC, "beerStyle"));
+        return reactiveMongoTemplate.aggregate(newAggregation(Beer.class, stages), BeerStyleStatsDTO.class)
+                .doOnNext(stats -> {
+                    if (stats.getAvgPrice() != null) {
+                        stats.setAvgPrice(stats.getAvgPrice().setScale(2, RoundingMode.HALF_UP));
+                    }
+                });
+    }
+
+    @Override
+    public Mono<Slice<BeerDTO>> searchBeers(String text, int page, int pageSize) {
+        PageRequest pageRequest = PageRequest.of(page, pageSize, Sort.by("score"));
+        //no count query, a full page is taken as a sign that there is a next one
+        return beerRepository.findAllBy(TextCriteria.forDefaultLanguage().matching(text), pageRequest)
+                .map(beerMapper::beerToBeerDTO)
+                .collectList()
+                .map(beers -> new SliceImpl<>(beers, pageRequest, beers.size() == pageSize));
+    }
+
     @Override
     public Mono<BeerDTO> saveBeer(Mono<BeerDTO> beerDTO) {
         return beerDTO.map(beerMapper::beerDTOtoBeer)
-                .flatMap(beerRepository::save)
+                .flatMap(this::saveAndRecord)
+                .doOnNext(this::cacheBeer)
                 .map(beerMapper::beerToBeerDTO);
     }
 
     @Override
     public Mono<BeerDTO> saveBeer(BeerDTO beerDTO) {
         validate(beerDTO);
-        return beerRepository.save(beerMapper.beerDTOtoBeer(beerDTO))
+        return saveAndRecord(beerMapper.beerDTOtoBeer(beerDTO))
+                .doOnNext(this::cacheBeer)
                 .map(beerMapper::beerToBeerDTO);
     }
 
+    @Override
+    public Mono<BatchResult> saveBeers(Flux<BeerDTO> beerDTOs) {
+        //chunks are written one after the other so at most one chunk is held in memory
+        return beerDTOs.index()
+                .buffer(batchChunkSize)
+                .concatMap(chunk -> changeFeed.nextVersions(Beer.class, BulkInsertSupport.idsOf(chunk, BeerDTO::getId))
+                        .flatMap(nextVersions -> BulkInsertSupport.insertChunk(chunk, this::validate,
+                                beerDTO -> toNewBeer(beerDTO, nextVersions), reactiveMongoTemplate, Beer.class, inserted -> {
+                                    inserted.forEach(beerNameIndex::put);
+                                    return inventorySummaryService.recordInserts(inserted);
+                                })))
+                .reduceWith(BatchResult::new, BatchResult::merge);
+    }
+
     @Override
     public Mono<BeerDTO> getBeerById(String beerId) {
-        return beerRepository.findById(beerId)
+        //read-through: a miss loads from Mongo, a missing document is not cached
+        //suppressCancel so one cancelled caller doesn't cancel the load other callers are waiting on
+        return Mono.fromFuture(() -> beerCache.get(beerId, (id, executor) -> loadBeer(id).toFuture()), true)
                 .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND,
                         "Beer with ID " + beerId + " not found")))
                 .map(beerMapper::beerToBeerDTO);
     }
 
+    @Override
+    public Mono<MultiGetResult<BeerDTO>> getBeersByIds(Collection<String> beerIds) {
+        Set<String> ids = new LinkedHashSet<>(beerIds);
+        //cached entries are served directly, all misses are fetched together with one _id $in query
+        return Mono.fromFuture(() -> beerCache.getAll(ids, (missingIds, executor) ->
+                                beerRepository.findAllById(new ArrayList<String>(missingIds))
+                                        .collectMap(Beer::getId)
+                                        .toFuture()), true)
+                .map(found -> MultiGetResult.of(ids, found, beerMapper::beerToBeerDTO));
+    }
+
     @Override
     public Mono<BeerDTO> updateBeer(String beerId, BeerDTO beerDTO) {
+        return updateBeer(beerId, beerDTO, List.of());
+    }
+
+    @Override
+    public Mono<BeerDTO> updateBeer(String beerId, BeerDTO beerDTO, Collection<Long> expectedVersions) {
         validate(beerDTO);
-        return beerRepository.findById(beerId)
-                .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND,
-                        "Beer with ID " + beerId + " not found")))
-                .map(foundBeer -> {
-                    foundBeer.setBeerName(beerDTO.getBeerName());
-                    foundBeer.setBeerStyle(beerDTO.getBeerStyle());
-                    foundBeer.setPrice(beerDTO.getPrice());
-                    foundBeer.setUpc(beerDTO.getUpc());
-                    foundBeer.setQuantityOnHand(beerDTO.getQuantityOnHand());
-                    return foundBeer;
-                })
-                .flatMap(beerRepository::save)
-                .map(beerMapper::beerToBeerDTO);
+        Update update = new Update()
+                .set("beerName", beerDTO.getBeerName())
+                .set("beerStyle", beerDTO.getBeerStyle())
+                .set("price", beerDTO.getPrice())
+                .set("upc", beerDTO.getUpc())
+                .set("quantityOnHand", beerDTO.getQuantityOnHand())
+                .set("lastModifiedDate", LocalDateTime.now());
+        return modifyBeer(beerId, update, expectedVersions);
     }
 
     @Override
     public Mono<BeerDTO> patchBeerById(String beerId, BeerDTO beerDTO) {
+        return patchBeerById(beerId, beerDTO, List.of());
+    }
+
+    @Override
+    public Mono<BeerDTO> patchBeerById(String beerId, BeerDTO beerDTO, Collection<Long> expectedVersions) {
         validate(beerDTO);
-        return beerRepository.findById(beerId)
-                .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND,
-                        "Beer with ID " + beerId + " not found")))
-                .map(foundBeer -> {
-                    if (hasText(beerDTO.getBeerName())) {
-                        foundBeer.setBeerName(beerDTO.getBeerName());
-                    }
-                    if (beerDTO.getBeerStyle() != null) {
-                        foundBeer.setBeerStyle(beerDTO.getBeerStyle());
-                    }
-                    if (beerDTO.getPrice() != null) {
-                        foundBeer.setPrice(beerDTO.getPrice());
-                    }
-                    if (hasText(beerDTO.getUpc())) {
-                        foundBeer.setUpc(beerDTO.getUpc());
-                    }
-                    if (beerDTO.getQuantityOnHand() != null) {
-                        foundBeer.setQuantityOnHand(beerDTO.getQuantityOnHand());
-                    }
-                    return foundBeer;
-                }).flatMap(beerRepository::save)
+        //only the fields that are present end up in the $set
+        Update update = new Update().set("lastModifiedDate", LocalDateTime.now());
+        if (hasText(beerDTO.getBeerName())) {
+            update.set("beerName", beerDTO.getBeerName());
+        }
+        if (beerDTO.getBeerStyle() != null) {
+            update.set("beerStyle", beerDTO.getBeerStyle());
+        }
+        if (beerDTO.getPrice() != null) {
+            update.set("price", beerDTO.getPrice());
+        }
+        if (hasText(beerDTO.getUpc())) {
+            update.set("upc", beerDTO.getUpc());
+        }
+        if (beerDTO.getQuantityOnHand() != null) {
+            update.set("quantityOnHand", beerDTO.getQuantityOnHand());
+        }
+        return modifyBeer(beerId, update, expectedVersions);
+    }
+
+    //one atomic findAndModify instead of findById + save, so concurrent writers can't overwrite each other's fields
+    //it returns the document as it was before this update, so the inventory summary moves by exactly this write
+    //with expected versions (If-Match) the version check is part of the same filter, so no lock is needed
+    private Mono<BeerDTO> modifyBeer(String beerId, Update update, Collection<Long> expectedVersions) {
+        return reactiveMongoTemplate.findAndModify(versionedQuery(beerId, expectedVersions), update.inc("version", 1),
+                        FindAndModifyOptions.options().returnNew(false), Beer.class)
+                .switchIfEmpty(noMatch(beerId, HttpStatus.PRECONDITION_FAILED,
+                        "Beer with ID " + beerId + " was changed, its version is not " + expectedVersions))
+                .flatMap(previous -> recordUpdate(previous, update))
+                .doOnNext(this::cacheBeer)
                 .map(beerMapper::beerToBeerDTO);
     }
 
+    private Mono<Beer> recordUpdate(Beer previous, Update update) {
+        Beer current = applyUpdate(previous, update);
+        return inventorySummaryService.recordChange(previous, current).thenReturn(current);
+    }
+
+    //the new state is the old document with the $set and $inc applied, mapped the same way Mongo received it
+    private Beer applyUpdate(Beer previous, Update update) {
+        MongoConverter converter = reactiveMongoTemplate.getConverter();
+        Document document = new Document();
+        converter.write(previous, document);
+        Document mappedUpdate = new UpdateMapper(converter).getMappedObject(update.getUpdateObject(),
+                converter.getMappingContext().getPersistentEntity(Beer.class));
+        document.putAll(mappedUpdate.get("$set", new Document()));
+        //the stock fields and the version, the converter reads the sum back as the type of the field
+        mappedUpdate.get("$inc", new Document()).forEach((field, increment) -> {
+            Number value = document.get(field, Number.class);
+            document.put(field, (value == null ? 0L : value.longValue()) + ((Number) increment).longValue());
+        });
+        return converter.read(Beer.class, document);
+    }
+
     @Override
     public Mono<Void> deleteBeerById(String beerId) {
-        return beerRepository.findById(beerId)
-                .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND)))
-                .flatMap(foundBeer -> beerRepository.deleteById(foundBeer.getId()));
+        return deleteBeerById(beerId, List.of());
+    }
+
+    @Override
+    public Mono<Void> deleteBeerById(String beerId, Collection<Long> expectedVersions) {
+        //the tombstone goes first, a delete can't be lost to the change feed between the two writes
+        return changeFeed.recordDeletion(Beer.class, beerId)
+                .then(reactiveMongoTemplate.findAndRemove(versionedQuery(beerId, expectedVersions), Beer.class))
+                .switchIfEmpty(noMatch(beerId, HttpStatus.PRECONDITION_FAILED,
+                        "Beer with ID " + beerId + " was changed, its version is not " + expectedVersions))
+                .flatMap(removed -> changeFeed.recordDeletedVersion(Beer.class, beerId, removed.getVersion())
+                        .then(inventorySummaryService.recordChange(removed, null)))
+                .doOnSuccess(deleted -> {
+                    beerCache.synchronous().invalidate(beerId);
+                    beerNameIndex.remove(beerId);
+                });
+    }
+
+    @Override
+    public Flux<BeerSuggestionDTO> autocompleteBeerName(String prefix, int limit) {
+        return Flux.fromIterable(beerNameIndex.complete(prefix, limit));
+    }
+
+    @Override
+    public Mono<StockLevelDTO> incrementStock(String beerId, int quantity) {
+        return adjustStock(beerId, quantity, false, new Update().inc("quantityOnHand", quantity));
+    }
+
+    @Override
+    public Mono<StockLevelDTO> decrementStock(String beerId, int quantity) {
+        return adjustStock(beerId, quantity, true, new Update().inc("quantityOnHand", -quantity));
+    }
+
+    @Override
+    public Mono<StockLevelDTO> reserveStock(String beerId, int quantity) {
+        return adjustStock(beerId, quantity, true, new Update()
+                .inc("quantityOnHand", -quantity)
+                .inc("quantityReserved", quantity));
+    }
+
+    @Override
+    public Mono<StockLevelDTO> adjustStock(String beerId, int delta) {
+        if (delta == 0) {
+            return Mono.error(new ServerWebInputException("Delta must not be zero"));
+        }
+        if (stockWriteBehind) {
+            //the sale already happened at the till, so the delta is not checked against the stock on hand
+            stockDeltaBuffer.add(beerId, delta);
+            return Mono.empty();
+        }
+        return delta > 0 ? incrementStock(beerId, delta) : decrementStock(beerId, -delta);
+    }
+
+    //the stock check and the $inc are one atomic document update, so there is no read-modify-write and no lock
+    private Mono<StockLevelDTO> adjustStock(String beerId, int quantity, boolean requiresStock, Update update) {
+        if (quantity <= 0) {
+            return Mono.error(new ServerWebInputException("Quantity must be positive"));
+        }
+        Query query = query(where("id").is(beerId));
+        if (requiresStock) {
+            query.addCriteria(where("quantityOnHand").gte(quantity));
+        }
+        update.set("lastModifiedDate", LocalDateTime.now()).inc("version", 1);
+        return reactiveMongoTemplate.findAndModify(query, update,
+                        FindAndModifyOptions.options().returnNew(false), Beer.class)
+                .switchIfEmpty(noMatch(beerId, HttpStatus.CONFLICT, "Not enough stock for beer with ID " + beerId))
+                .flatMap(previous -> recordUpdate(previous, update))
+                .doOnNext(this::cacheBeer)
+                .map(beer -> StockLevelDTO.builder()
+                        .beerId(beer.getId())
+                        .quantityOnHand(beer.getQuantityOnHand())
+                        .quantityReserved(beer.getQuantityReserved())
+                        .build());
+    }
+
+    //a save with an id replaces that beer with one atomic findAndModify, the same way the updates do, so the summary
+    //moves by exactly this write even when another write lands between a read and the save
+    //without a version it replaces whatever is stored, with one the save fails when the stored version moved on
+    //a beer that is not stored yet is inserted, whatever version the client sent has nothing to be checked against
+    private Mono<Beer> saveAndRecord(Beer beer) {
+        if (beer.getId() == null) {
+            return insertAndRecord(beer);
+        }
+        //the id, the version, the creation date and the reserved quantity stay with the stored document
+        Update update = new Update()
+                .set("beerName", beer.getBeerName())
+                .set("beerStyle", beer.getBeerStyle())
+                .set("price", beer.getPrice())
+                .set("upc", beer.getUpc())
+                .set("quantityOnHand", beer.getQuantityOnHand())
+                .set("lastModifiedDate", LocalDateTime.now());
+        List<Long> expectedVersions = beer.getVersion() == null ? List.of() : List.of(beer.getVersion());
+        return reactiveMongoTemplate.findAndModify(versionedQuery(beer.getId(), expectedVersions), update.inc("version", 1),
+                        FindAndModifyOptions.options().returnNew(false), Beer.class)
+                .flatMap(previous -> recordUpdate(previous, update))
+                .switchIfEmpty(Mono.defer(() -> beerRepository.existsById(beer.getId()))
+                        .flatMap(exists -> exists ? Mono.error(new ResponseStatusException(HttpStatus.PRECONDITION_FAILED,
+                                "Beer with ID " + beer.getId() + " was changed, its version is not " + expectedVersions))
+                                : insertAndRecord(beer)));
+    }
+
+    //a new id is left to Spring Data, which starts the version at 0
+    //an id that was deleted before continues after the version it had, see ChangeFeed.nextVersion
+    private Mono<Beer> insertAndRecord(Beer beer) {
+        Mono<Long> nextVersion = beer.getId() == null ? Mono.empty() : changeFeed.nextVersion(Beer.class, beer.getId());
+        return nextVersion
+                .flatMap(version -> {
+                    beer.setVersion(version);
+                    return BulkInsertSupport.insertAsIs(beer, reactiveMongoTemplate, Beer.class);
+                })
+                .switchIfEmpty(Mono.defer(() -> {
+                    beer.setVersion(null);
+                    return beerRepository.save(beer);
+                }))
+                .flatMap(saved -> inventorySummaryService.recordChange(null, saved).thenReturn(saved))
+                .onErrorMap(DuplicateKeyException.class, e -> new ResponseStatusException(HttpStatus.PRECONDITION_FAILED,
+                        "Beer with ID " + beer.getId() + " was saved by another request first"));
+    }
+
+    private static Query versionedQuery(String beerId, Collection<Long> expectedVersions) {
+        Query query = query(where("id").is(beerId));
+        if (!expectedVersions.isEmpty()) {
+            query.addCriteria(where("version").in(expectedVersions));
+        }
+        return query;
+    }
+
+    //no match of a conditional write is either an unknown beer or a failed condition, only then is the extra lookup needed
+    private <T> Mono<T> noMatch(String beerId, HttpStatus conditionFailed, String reason) {
+        return beerRepository.existsById(beerId)
+                .flatMap(exists -> Mono.error(exists
+                        ? new ResponseStatusException(conditionFailed, reason)
+                        : new ResponseStatusException(HttpStatus.NOT_FOUND, "Beer with ID " + beerId + " not found")));
+    }
+
+    private Mono<Beer> loadBeer(String beerId) {
+        return batchingEnabled ? beerBatchLoader.load(beerId) : beerRepository.findById(beerId);
+    }
+
+    //writes replace the cached entry and the name index entry before the caller gets the result,
+    //so it can always read its own write
+    private void cacheBeer(Beer beer) {
+        beerCache.put(beer.getId(), CompletableFuture.completedFuture(beer));
+        beerNameIndex.put(beer);
+    }
+
+    //the id is assigned here instead of by the driver so the bulk inserted beers can be indexed by id
+    //bulk inserts skip the save logic of the repository, so the initial version is set here
+    private Beer toNewBeer(BeerDTO beerDTO, Map<String, Long> nextVersions) {
+        Beer beer = beerMapper.beerDTOtoBeer(beerDTO);
+        if (beer.getId() == null) {
+            beer.setId(new ObjectId().toHexString());
+        }
+        beer.setVersion(nextVersions.getOrDefault(beer.getId(), 0L));
+        return beer;
     }
 }
@@ -0,0 +1,120 @@
+package nl.top.reactivemongodb.services;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import nl.top.reactivemongodb.model.BatchResult;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+final class BulkInsertSupport {
+
+    private BulkInsertSupport() {
+    }
+
+    static <D, E> Mono<BatchResult> insertChunk(List<Tuple2<Long, D>> chunk, Consumer<D> validator, Function<D, E> mapper,
+                                                ReactiveMongoTemplate reactiveMongoTemplate, Class<E> entityClass) {
+        return insertChunk(chunk, validator, mapper, reactiveMongoTemplate, entityClass, inserted -> Mono.empty());
+    }
+
+    //validates every item of the chunk and writes the valid ones with one unordered insertMany
+    //onInserted gets the entities that were actually written
+    static <D, E> Mono<BatchResult> insertChunk(List<Tuple2<Long, D>> chunk, Consumer<D> validator, Function<D, E> mapper,
+                                                ReactiveMongoTemplate reactiveMongoTemplate, Class<E> entityClass,
+                                                Function<List<E>, Mono<Void>> onInserted) {
+        BatchResult result = new BatchResult();
+        result.setReceived(chunk.size());
+        List<Long> positions = new ArrayList<>();
+        List<E> entities = new ArrayList<>();
+        for (Tuple2<Long, D> item : chunk) {
+            try {
+                validator.accept(item.getT2());
+                entities.add(mapper.apply(item.getT2()));
+                positions.add(item.getT1());
+            } catch (ResponseStatusException e) {
+                result.addFailure(item.getT1(), e.getReason());
+            }
+        }
+        if (entities.isEmpty()) {
+            return Mono.just(result);
+        }
+        return reactiveMongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, entityClass)
+                .insert(entities)
+                .execute()
+                .flatMap(bulkWriteResult -> {
+                    result.setSucceeded(bulkWriteResult.getInsertedCount());
+                    return onInserted.apply(entities).thenReturn(result);
+                })
+                .onErrorResume(error -> {
+                    List<BulkWriteError> writeErrors = writeErrors(error);
+                    if (writeErrors == null) {
+                        positions.forEach(position -> result.addFailure(position, error.getMessage()));
+                        return Mono.just(result);
+                    }
+                    //unordered: everything that is not reported as an error has been written
+                    result.setSucceeded(entities.size() - writeErrors.size());
+                    Set<Integer> failed = new HashSet<>();
+                    writeErrors.forEach(writeError -> {
+                        failed.add(writeError.getIndex());
+                        result.addFailure(positions.get(writeError.getIndex()), writeError.getMessage());
+                    });
+                    List<E> inserted = new ArrayList<>();
+                    for (int i = 0; i < entities.size(); i++) {
+                        if (!failed.contains(i)) {
+                            inserted.add(entities.get(i));
+                        }
+                    }
+                    return onInserted.apply(inserted).thenReturn(result);
+                });
+    }
+
+    //the ids a chunk brings along, the others are assigned on insert
+    static <D> List<String> idsOf(List<Tuple2<Long, D>> chunk, Function<D, String> idOf) {
+        return chunk.stream()
+                .map(item -> idOf.apply(item.getT2()))
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
+    //the template's insert starts every version at 0, a bulk insert writes the entity with the version it has
+    //a duplicate id fails with the same DuplicateKeyException as the template's insert
+    static <E> Mono<E> insertAsIs(E entity, ReactiveMongoTemplate reactiveMongoTemplate, Class<E> entityClass) {
+        return reactiveMongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, entityClass)
+                .insert(entity)
+                .execute()
+                .thenReturn(entity)
+                .onErrorMap(BulkInsertSupport::isDuplicateKey, error -> new DuplicateKeyException(error.getMessage(), error));
+    }
+
+    private static boolean isDuplicateKey(Throwable error) {
+        List<BulkWriteError> writeErrors = writeErrors(error);
+        return writeErrors != null && writeErrors.stream()
+                .anyMatch(writeError -> ErrorCategory.fromErrorCode(writeError.getCode()) == ErrorCategory.DUPLICATE_KEY);
+    }
+
+    //the driver exception may arrive as is or wrapped by the Spring exception translation
+    static List<BulkWriteError> writeErrors(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof MongoBulkWriteException bulkWriteException) {
+                return bulkWriteException.getWriteErrors();
+            }
+            if (cause instanceof BulkOperationException bulkOperationException) {
+                return bulkOperationException.getErrors();
+            }
+        }
+        return null;
+    }
+}
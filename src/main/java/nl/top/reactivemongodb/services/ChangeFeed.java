@@ -0,0 +1,197 @@
+package nl.top.reactivemongodb.services;
+
+import lombok.RequiredArgsConstructor;
+import nl.top.reactivemongodb.domain.Tombstone;
+import nl.top.reactivemongodb.model.ChangeSet;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebInputException;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+import static org.springframework.util.StringUtils.hasText;
+
+//changes since a watermark for incremental sync, read from the lastModifiedDate_id index and the tombstones
+@Component
+@RequiredArgsConstructor
+public class ChangeFeed {
+    private static final Duration RETENTION = DurationStyle.detectAndParse(Tombstone.RETENTION);
+
+    private final ReactiveMongoTemplate reactiveMongoTemplate;
+    //lastModifiedDate is set before the write reaches Mongo, so a write can become visible after a later one
+    //changes younger than this are held back until the next request, so a watermark never passes a write still in flight
+    @Value("${app.sync.settle-time:5s}")
+    private Duration settleTime = Duration.ofSeconds(5);
+
+    //the position in (lastModifiedDate, _id) order, a null id means everything up to and including that millisecond
+    record Watermark(LocalDateTime lastModifiedDate, String id) {
+        static final Watermark START = new Watermark(LocalDateTime.ofInstant(Instant.EPOCH, ZoneId.systemDefault()), null);
+
+        String encode() {
+            long millis = lastModifiedDate.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            String value = id == null ? String.valueOf(millis) : millis + ":" + id;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static Watermark decode(String watermark) {
+            try {
+                String[] parts = new String(Base64.getUrlDecoder().decode(watermark), StandardCharsets.UTF_8).split(":", 2);
+                LocalDateTime lastModifiedDate = LocalDateTime.ofInstant(Instant.ofEpochMilli(Long.parseLong(parts[0])),
+                        ZoneId.systemDefault());
+                return new Watermark(lastModifiedDate, parts.length == 2 ? parts[1] : null);
+            } catch (IllegalArgumentException e) {
+                throw new ServerWebInputException("Invalid watermark " + watermark);
+            }
+        }
+    }
+
+    //written before the delete and keyed on type and id, so a retried delete doesn't leave a second one
+    //a delete that fails after it leaves a tombstone for a document that still exists, stillDeleted skips those
+    public Mono<Void> recordDeletion(Class<?> entityClass, String entityId) {
+        return reactiveMongoTemplate.upsert(tombstoneOf(entityClass, entityId), new Update().set("deletedDate", LocalDateTime.now()),
+                        Tombstone.class)
+                .then();
+    }
+
+    //written once the delete went through, $max so an older delete of the same id can't move it back
+    public Mono<Void> recordDeletedVersion(Class<?> entityClass, String entityId, Long version) {
+        return reactiveMongoTemplate.updateFirst(tombstoneOf(entityClass, entityId), new Update().max("version", version),
+                        Tombstone.class)
+                .then();
+    }
+
+    //the first version of a document saved again under an id that was deleted, empty for an id that never was
+    //versions never repeat for an id, so a client still holding the tag of the deleted document can't match the new one
+    //once the tombstone has expired the id starts over, by then such a client has to sync from scratch anyway
+    public Mono<Long> nextVersion(Class<?> entityClass, String entityId) {
+        return nextVersions(entityClass, List.of(entityId)).mapNotNull(versions -> versions.get(entityId));
+    }
+
+    public Mono<Map<String, Long>> nextVersions(Class<?> entityClass, Collection<String> entityIds) {
+        if (entityIds.isEmpty()) {
+            return Mono.just(Map.of());
+        }
+        Query tombstones = query(where("entityType").is(reactiveMongoTemplate.getCollectionName(entityClass))
+                .and("entityId").in(entityIds)
+                .and("version").ne(null));
+        tombstones.fields().include("entityId").include("version");
+        return reactiveMongoTemplate.find(tombstones, Tombstone.class)
+                .collectMap(Tombstone::getEntityId, tombstone -> tombstone.getVersion() + 1);
+    }
+
+    private Query tombstoneOf(Class<?> entityClass, String entityId) {
+        return query(where("entityType").is(reactiveMongoTemplate.getCollectionName(entityClass))
+                .and("entityId").is(entityId));
+    }
+
+    //without a watermark the first page starts at the beginning, so a new client pages through the catalog once
+    //such a client has nothing to delete, the tombstones are only read once it has a watermark
+    public <E, D> Mono<ChangeSet<D>> changesSince(Class<E> entityClass, String since, int limit, Function<E, D> mapper,
+                                                  Function<E, String> idOf, Function<E, LocalDateTime> lastModifiedOf) {
+        Watermark from = hasText(since) ? Watermark.decode(since) : Watermark.START;
+        LocalDateTime now = LocalDateTime.now();
+        if (from != Watermark.START && from.lastModifiedDate().isBefore(now.minus(RETENTION))) {
+            return Mono.error(new ResponseStatusException(HttpStatus.GONE,
+                    "The watermark is older than the " + Tombstone.RETENTION + " deletes are kept, sync from scratch"));
+        }
+        LocalDateTime settled = now.minus(settleTime).truncatedTo(ChronoUnit.MILLIS);
+        //the clock can step back, the watermark never does
+        LocalDateTime upTo = settled.isAfter(from.lastModifiedDate()) ? settled : from.lastModifiedDate();
+        Criteria after = from.id() == null ? where("lastModifiedDate").gt(from.lastModifiedDate())
+                : new Criteria().orOperator(where("lastModifiedDate").gt(from.lastModifiedDate()),
+                where("lastModifiedDate").is(from.lastModifiedDate()).and("id").gt(from.id()));
+        Query changed = query(new Criteria().andOperator(after, where("lastModifiedDate").lte(upTo)))
+                .with(Sort.by("lastModifiedDate", "id"))
+                .limit(limit + 1);
+        return reactiveMongoTemplate.find(changed, entityClass)
+                .collectList()
+                .flatMap(items -> {
+                    boolean hasMore = items.size() > limit;
+                    List<E> page = hasMore ? items.subList(0, limit) : items;
+                    E last = hasMore ? page.get(limit - 1) : null;
+                    Watermark next = last == null ? new Watermark(upTo, null)
+                            : new Watermark(lastModifiedOf.apply(last), idOf.apply(last));
+                    if (from == Watermark.START) {
+                        return Mono.just(changeSet(page, List.of(), next, hasMore, mapper));
+                    }
+                    //deletes are taken up to the time the changes reached, the next request goes on from there
+                    return deletedBetween(entityClass, from.lastModifiedDate(), next.lastModifiedDate(), limit + 1)
+                            .flatMap(deleted -> {
+                                if (deleted.size() <= limit) {
+                                    return Mono.just(changeSet(page, deleted, next, hasMore, mapper));
+                                }
+                                //more deletes than fit, the page ends at the millisecond of the last delete that fits
+                                //the other deletes of that millisecond are read as well, the next request starts after it
+                                LocalDateTime cut = deleted.get(limit - 1).getDeletedDate();
+                                Watermark cutOff = cut.isBefore(next.lastModifiedDate()) ? new Watermark(cut, null) : next;
+                                List<E> changedBefore = page.stream()
+                                        .filter(item -> !lastModifiedOf.apply(item).isAfter(cut))
+                                        .toList();
+                                return deletedBetween(entityClass, from.lastModifiedDate(), cut, Integer.MAX_VALUE)
+                                        .map(deletedBefore -> changeSet(changedBefore, deletedBefore, cutOff, true, mapper));
+                            })
+                            .flatMap(changeSet -> stillDeleted(entityClass, idOf, changeSet));
+                });
+    }
+
+    private static <E, D> ChangeSet<D> changeSet(List<E> page, List<Tombstone> deleted, Watermark next, boolean hasMore,
+                                                 Function<E, D> mapper) {
+        return ChangeSet.<D>builder()
+                .changed(page.stream().map(mapper).toList())
+                .deleted(deleted.stream().map(Tombstone::getEntityId).toList())
+                .watermark(next.encode())
+                .hasMore(hasMore)
+                .build();
+    }
+
+    private Mono<List<Tombstone>> deletedBetween(Class<?> entityClass, LocalDateTime after, LocalDateTime upTo, int limit) {
+        Query tombstones = query(where("entityType").is(reactiveMongoTemplate.getCollectionName(entityClass))
+                .and("deletedDate").gt(after).lte(upTo))
+                .with(Sort.by("deletedDate"))
+                .limit(limit);
+        tombstones.fields().include("entityId").include("deletedDate");
+        return reactiveMongoTemplate.find(tombstones, Tombstone.class)
+                .collectList();
+    }
+
+    //the tombstone is written before the delete, one whose delete failed or whose id was saved again is left out
+    //a tombstone is only read after the settle time, by then the delete it was written for has long finished
+    private <E, D> Mono<ChangeSet<D>> stillDeleted(Class<E> entityClass, Function<E, String> idOf, ChangeSet<D> changeSet) {
+        if (changeSet.getDeleted().isEmpty()) {
+            return Mono.just(changeSet);
+        }
+        Query existing = query(where("id").in(changeSet.getDeleted()));
+        existing.fields().include("id");
+        return reactiveMongoTemplate.find(existing, entityClass)
+                .map(idOf)
+                .collect(Collectors.toSet())
+                .map(existingIds -> {
+                    changeSet.setDeleted(changeSet.getDeleted().stream()
+                            .filter(id -> !existingIds.contains(id))
+                            .toList());
+                    return changeSet;
+                });
+    }
+}
@@ -0,0 +1,31 @@
+package nl.top.reactivemongodb.services;
+
+import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.Date;
+
+//a version of a whole collection that costs two index or metadata reads instead of reading the documents
+//every write path sets lastModifiedDate, so an insert or update moves the newest date and a delete moves the count
+@Component
+@RequiredArgsConstructor
+public class CollectionVersions {
+    private final ReactiveMongoTemplate reactiveMongoTemplate;
+
+    public Mono<String> versionOf(Class<?> entityClass) {
+        //covered by the lastModifiedDate index, no document is fetched
+        Query newest = new Query().with(Sort.by(Sort.Direction.DESC, "lastModifiedDate")).limit(1);
+        newest.fields().include("lastModifiedDate").exclude("_id");
+        Mono<Long> lastModified = reactiveMongoTemplate
+                .findOne(newest, Document.class, reactiveMongoTemplate.getCollectionName(entityClass))
+                .map(document -> document.get("lastModifiedDate") instanceof Date date ? date.getTime() : 0L)
+                .defaultIfEmpty(0L);
+        return Mono.zip(reactiveMongoTemplate.estimatedCount(entityClass), lastModified)
+                .map(version -> version.getT1() + "-" + version.getT2());
+    }
+}
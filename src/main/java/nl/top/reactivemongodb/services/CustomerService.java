@@ -1,23 +1,58 @@
 package nl.top.reactivemongodb.services;
 
+import nl.top.reactivemongodb.model.BatchResult;
+import nl.top.reactivemongodb.model.ChangeSet;
+import nl.top.reactivemongodb.model.CursorPage;
 import nl.top.reactivemongodb.model.CustomerDTO;
+import nl.top.reactivemongodb.model.MultiGetResult;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.Collection;
+
 public interface CustomerService {
     Flux<CustomerDTO> listCustomers();
 
+    Mono<CursorPage<CustomerDTO>> listCustomers(String cursor, int pageSize);
+
+    //a sorted list is the first pageSize customers in sort order, the cursor only walks the unsorted list
+    Mono<CursorPage<CustomerDTO>> listCustomers(Sort sort, String cursor, int pageSize);
+
+    Flux<CustomerDTO> listCustomers(Sort sort);
+
+    //customers changed and deleted after the watermark, null starts from the beginning, see ChangeFeed
+    Mono<ChangeSet<CustomerDTO>> getChangesSince(String watermark, int limit);
+
+    //changes with every write to the customers, see CollectionVersions
+    Mono<String> getListVersion();
+
     Mono<CustomerDTO> findFirstByCustomerName(String customerName);
 
+    //relevance ordered, page is zero based
+    Mono<Slice<CustomerDTO>> searchCustomers(String text, int page, int pageSize);
+
     Mono<CustomerDTO> saveCustomer(Mono<CustomerDTO> customerDTO);
 
     Mono<CustomerDTO> saveCustomer(CustomerDTO customerDTO);
 
+    Mono<BatchResult> saveCustomers(Flux<CustomerDTO> customerDTOs);
+
     Mono<CustomerDTO> getCustomerById(String customerId);
 
+    Mono<MultiGetResult<CustomerDTO>> getCustomersByIds(Collection<String> customerIds);
+
     Mono<CustomerDTO> updateCustomer(String customerId, CustomerDTO customerDTO);
 
+    //the write only happens while the customer is at one of the expected versions (If-Match), otherwise 412
+    Mono<CustomerDTO> updateCustomer(String customerId, CustomerDTO customerDTO, Collection<Long> expectedVersions);
+
     Mono<CustomerDTO> patchCustomer(String customerId, CustomerDTO customerDTO);
 
+    Mono<CustomerDTO> patchCustomer(String customerId, CustomerDTO customerDTO, Collection<Long> expectedVersions);
+
     Mono<Void> deleteCustomerById(String customerId);
+
+    Mono<Void> deleteCustomerById(String customerId, Collection<Long> expectedVersions);
 }
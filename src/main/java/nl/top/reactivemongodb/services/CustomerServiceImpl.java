@@ -1,9 +1,27 @@
 package nl.top.reactivemongodb.services;
 
+import com.github.benmanes.caffeine.cache.AsyncCache;
 import lombok.RequiredArgsConstructor;
+import nl.top.reactivemongodb.domain.Customer;
 import nl.top.reactivemongodb.mapper.CustomerMapper;
+import nl.top.reactivemongodb.model.BatchResult;
+import nl.top.reactivemongodb.model.ChangeSet;
+import nl.top.reactivemongodb.model.CursorPage;
 import nl.top.reactivemongodb.model.CustomerDTO;
+import nl.top.reactivemongodb.model.MultiGetResult;
 import nl.top.reactivemongodb.repositories.CustomerRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.TextCriteria;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.validation.BeanPropertyBindingResult;
@@ -14,6 +32,17 @@ import org.springframework.web.server.ServerWebInputException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
 import static org.springframework.util.StringUtils.hasText;
 
 @Service
@@ -23,6 +52,18 @@ public class CustomerServiceImpl implements CustomerService {
     private final CustomerMapper customerMapper;
     private final CustomerRepository customerRepository;
     private final Validator validator;
+    private final ReactiveMongoTemplate reactiveMongoTemplate;
+    private final AsyncCache<String, Customer> customerCache;
+    private final RequestCoalescer<String, Customer> customerNameCoalescer;
+    private final BatchingLoader<String, Customer> customerBatchLoader;
+    private final IndexedFields indexedFields;
+    private final CollectionVersions collectionVersions;
+    private final ChangeFeed changeFeed;
+    @Value("${app.batch.chunk-size:500}")
+    private int batchChunkSize;
+    @Value("${app.batching.enabled:false}")
+    private boolean batchingEnabled;
+
     private void validate(CustomerDTO customerDTO) {
         Errors errors = new BeanPropertyBindingResult(customerDTO, "customerDTO");
         validator.validate(customerDTO, errors);
@@ -35,67 +76,236 @@ public class CustomerServiceImpl implements CustomerService {
         return customerRepository.findAll().map(customerMapper::customerToCustomerDTO);
     }
 
+    @Override
+    public Mono<CursorPage<CustomerDTO>> listCustomers(String cursor, int pageSize) {
+        return listCustomers(Sort.unsorted(), cursor, pageSize);
+    }
+
+    @Override
+    public Mono<CursorPage<CustomerDTO>> listCustomers(Sort sort, String cursor, int pageSize) {
+        if (sort.isSorted()) {
+            if (hasText(cursor)) {
+                throw new ServerWebInputException("A cursor can not be combined with sort");
+            }
+            //sort and limit go to Mongo together, the index is read in order and stops after pageSize customers
+            Query query = new Query().with(indexedFields.requireIndexed(Customer.class, sort)).limit(pageSize);
+            return reactiveMongoTemplate.find(query, Customer.class)
+                    .map(customerMapper::customerToCustomerDTO)
+                    .collectList()
+                    .map(customers -> new CursorPage<>(customers, null));
+        }
+        //range query on the _id index instead of skip/limit, one extra item tells us if there is a next page
+        Query query = new Query().with(Sort.by(Sort.Direction.ASC, "id")).limit(pageSize + 1);
+        if (hasText(cursor)) {
+            query.addCriteria(where("id").gt(CursorPage.decodeCursor(cursor)));
+        }
+        return reactiveMongoTemplate.find(query, Customer.class)
+                .map(customerMapper::customerToCustomerDTO)
+                .collectList()
+                .map(customers -> CursorPage.of(customers, pageSize, CustomerDTO::getId));
+    }
+
+    @Override
+    public Flux<CustomerDTO> listCustomers(Sort sort) {
+        return Mono.fromCallable(() -> new Query().with(indexedFields.requireIndexed(Customer.class, sort)))
+                .flatMapMany(query -> reactiveMongoTemplate.find(query, Customer.class))
+                .map(customerMapper::customerToCustomerDTO);
+    }
+
+    @Override
+    public Mono<ChangeSet<CustomerDTO>> getChangesSince(String watermark, int limit) {
+        return changeFeed.changesSince(Customer.class, watermark, limit, customerMapper::customerToCustomerDTO,
+                Customer::getId, Customer::getLastModifiedDate);
+    }
+
+    @Override
+    public Mono<String> getListVersion() {
+        return collectionVersions.versionOf(Customer.class);
+    }
+
     @Override
     public Mono<CustomerDTO> findFirstByCustomerName(String customerName) {
-        return customerRepository.findFirstByCustomerName(customerName).map(customerMapper::customerToCustomerDTO);
+        return customerNameCoalescer.execute(customerName, customerRepository::findFirstByCustomerName)
+                .map(customerMapper::customerToCustomerDTO);
+    }
+
+    @Override
+    public Mono<Slice<CustomerDTO>> searchCustomers(String text, int page, int pageSize) {
+        PageRequest pageRequest = PageRequest.of(page, pageSize, Sort.by("score"));
+        //no count query, a full page is taken as a sign that there is a next one
+        return customerRepository.findAllBy(TextCriteria.forDefaultLanguage().matching(text), pageRequest)
+                .map(customerMapper::customerToCustomerDTO)
+                .collectList()
+                .map(customers -> new SliceImpl<>(customers, pageRequest, customers.size() == pageSize));
     }
 
     @Override
     public Mono<CustomerDTO> saveCustomer(Mono<CustomerDTO> customerDTO) {
         return customerDTO.map(customerMapper::customerDTOtoCustomer)
-                .flatMap(customerRepository::save)
+                .flatMap(this::saveVersioned)
+                .doOnNext(this::cacheCustomer)
                 .map(customerMapper::customerToCustomerDTO);
     }
 
     @Override
     public Mono<CustomerDTO> saveCustomer(CustomerDTO customerDTO) {
         validate(customerDTO);
-        return customerRepository.save(customerMapper.customerDTOtoCustomer(customerDTO))
+        return saveVersioned(customerMapper.customerDTOtoCustomer(customerDTO))
+                .doOnNext(this::cacheCustomer)
                 .map(customerMapper::customerToCustomerDTO);
     }
 
+    @Override
+    public Mono<BatchResult> saveCustomers(Flux<CustomerDTO> customerDTOs) {
+        //chunks are written one after the other so at most one chunk is held in memory
+        return customerDTOs.index()
+                .buffer(batchChunkSize)
+                .concatMap(chunk -> changeFeed.nextVersions(Customer.class, BulkInsertSupport.idsOf(chunk, CustomerDTO::getId))
+                        .flatMap(nextVersions -> BulkInsertSupport.insertChunk(chunk, this::validate,
+                                customerDTO -> toNewCustomer(customerDTO, nextVersions), reactiveMongoTemplate, Customer.class)))
+                .reduceWith(BatchResult::new, BatchResult::merge);
+    }
+
     @Override
     public Mono<CustomerDTO> getCustomerById(String customerId) {
-        return customerRepository.findById(customerId)
+        //read-through: a miss loads from Mongo, a missing document is not cached
+        //suppressCancel so one cancelled caller doesn't cancel the load other callers are waiting on
+        return Mono.fromFuture(() -> customerCache.get(customerId, (id, executor) -> loadCustomer(id).toFuture()), true)
                 .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND,
                         "Customer with ID " + customerId + " not found")))
                 .map(customerMapper::customerToCustomerDTO);
     }
 
+    @Override
+    public Mono<MultiGetResult<CustomerDTO>> getCustomersByIds(Collection<String> customerIds) {
+        Set<String> ids = new LinkedHashSet<>(customerIds);
+        //cached entries are served directly, all misses are fetched together with one _id $in query
+        return Mono.fromFuture(() -> customerCache.getAll(ids, (missingIds, executor) ->
+                                customerRepository.findAllById(new ArrayList<String>(missingIds))
+                                        .collectMap(Customer::getId)
+                                        .toFuture()), true)
+                .map(found -> MultiGetResult.of(ids, found, customerMapper::customerToCustomerDTO));
+    }
+
     @Override
     public Mono<CustomerDTO> updateCustomer(String customerId, CustomerDTO customerDTO) {
-       validate(customerDTO);
-        return customerRepository.findById(customerId)
-                .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND,
-                        "Customer with ID " + customerId + " not found")))
-                .map(foundCustomer -> {
-                    foundCustomer.setCustomerName(customerDTO.getCustomerName());
-                    return foundCustomer;
-                })
-                .flatMap(customerRepository::save)
-                .map(customerMapper::customerToCustomerDTO);
+        return updateCustomer(customerId, customerDTO, List.of());
+    }
+
+    @Override
+    public Mono<CustomerDTO> updateCustomer(String customerId, CustomerDTO customerDTO, Collection<Long> expectedVersions) {
+        validate(customerDTO);
+        Update update = new Update()
+                .set("customerName", customerDTO.getCustomerName())
+                .set("lastModifiedDate", LocalDateTime.now());
+        return modifyCustomer(customerId, update, expectedVersions);
     }
 
     @Override
     public Mono<CustomerDTO> patchCustomer(String customerId, CustomerDTO customerDTO) {
+        return patchCustomer(customerId, customerDTO, List.of());
+    }
+
+    @Override
+    public Mono<CustomerDTO> patchCustomer(String customerId, CustomerDTO customerDTO, Collection<Long> expectedVersions) {
         validate(customerDTO);
-        return customerRepository.findById(customerId)
-                .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND,
-                        "Customer with ID " + customerId + " not found")))
-                .map(foundCustomer -> {
-                    if (hasText(customerDTO.getCustomerName())) {
-                        foundCustomer.setCustomerName(customerDTO.getCustomerName());
-                    }
-                    return foundCustomer;
-                })
-                .flatMap(customerRepository::save)
+        //only the fields that are present end up in the $set
+        Update update = new Update().set("lastModifiedDate", LocalDateTime.now());
+        if (hasText(customerDTO.getCustomerName())) {
+            update.set("customerName", customerDTO.getCustomerName());
+        }
+        return modifyCustomer(customerId, update, expectedVersions);
+    }
+
+    //one atomic findAndModify instead of findById + save, so concurrent writers can't overwrite each other's fields
+    //with expected versions (If-Match) the version check is part of the same filter, so no lock is needed
+    private Mono<CustomerDTO> modifyCustomer(String customerId, Update update, Collection<Long> expectedVersions) {
+        return reactiveMongoTemplate.findAndModify(versionedQuery(customerId, expectedVersions), update.inc("version", 1),
+                        FindAndModifyOptions.options().returnNew(true), Customer.class)
+                .switchIfEmpty(noMatch(customerId, expectedVersions))
+                .doOnNext(this::cacheCustomer)
                 .map(customerMapper::customerToCustomerDTO);
     }
 
     @Override
     public Mono<Void> deleteCustomerById(String customerId) {
-        return customerRepository.findById(customerId)
-                .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND)))
-                .flatMap(foundCustomer -> customerRepository.deleteById(foundCustomer.getId()));
+        return deleteCustomerById(customerId, List.of());
+    }
+
+    @Override
+    public Mono<Void> deleteCustomerById(String customerId, Collection<Long> expectedVersions) {
+        //the tombstone goes first, a delete can't be lost to the change feed between the two writes
+        return changeFeed.recordDeletion(Customer.class, customerId)
+                .then(reactiveMongoTemplate.findAndRemove(versionedQuery(customerId, expectedVersions), Customer.class))
+                .switchIfEmpty(noMatch(customerId, expectedVersions))
+                .flatMap(removed -> changeFeed.recordDeletedVersion(Customer.class, customerId, removed.getVersion()))
+                .doOnSuccess(deleted -> customerCache.synchronous().invalidate(customerId));
+    }
+
+    //without a version a save with an id replaces whatever is stored, with one it fails when the stored version moved on
+    //a customer that is not stored yet is inserted, whatever version the client sent has nothing to be checked against
+    private Mono<Customer> saveVersioned(Customer customer) {
+        Mono<Customer> stored = customer.getId() == null ? Mono.empty() : customerRepository.findById(customer.getId());
+        return stored
+                .flatMap(found -> {
+                    if (customer.getVersion() == null) {
+                        customer.setVersion(found.getVersion());
+                    }
+                    return customerRepository.save(customer);
+                })
+                .switchIfEmpty(Mono.defer(() -> insertVersioned(customer)))
+                .onErrorMap(OptimisticLockingFailureException.class, e -> new ResponseStatusException(
+                        HttpStatus.PRECONDITION_FAILED, "Customer with ID " + customer.getId()
+                        + " was changed, its version is not " + customer.getVersion()))
+                .onErrorMap(DuplicateKeyException.class, e -> new ResponseStatusException(HttpStatus.PRECONDITION_FAILED,
+                        "Customer with ID " + customer.getId() + " was saved by another request first"));
+    }
+
+    //a new id is left to Spring Data, which starts the version at 0
+    //an id that was deleted before continues after the version it had, see ChangeFeed.nextVersion
+    private Mono<Customer> insertVersioned(Customer customer) {
+        Mono<Long> nextVersion = customer.getId() == null ? Mono.empty() : changeFeed.nextVersion(Customer.class, customer.getId());
+        return nextVersion
+                .flatMap(version -> {
+                    customer.setVersion(version);
+                    return BulkInsertSupport.insertAsIs(customer, reactiveMongoTemplate, Customer.class);
+                })
+                .switchIfEmpty(Mono.defer(() -> {
+                    customer.setVersion(null);
+                    return customerRepository.save(customer);
+                }));
+    }
+
+    //bulk inserts skip the save logic of the repository, so the initial version is set here
+    private Customer toNewCustomer(CustomerDTO customerDTO, Map<String, Long> nextVersions) {
+        Customer customer = customerMapper.customerDTOtoCustomer(customerDTO);
+        customer.setVersion(customer.getId() == null ? 0L : nextVersions.getOrDefault(customer.getId(), 0L));
+        return customer;
+    }
+
+    private static Query versionedQuery(String customerId, Collection<Long> expectedVersions) {
+        Query query = query(where("id").is(customerId));
+        if (!expectedVersions.isEmpty()) {
+            query.addCriteria(where("version").in(expectedVersions));
+        }
+        return query;
+    }
+
+    //no match of a conditional write is either an unknown customer or a stale If-Match, only then is the extra lookup needed
+    private <T> Mono<T> noMatch(String customerId, Collection<Long> expectedVersions) {
+        return customerRepository.existsById(customerId)
+                .flatMap(exists -> Mono.error(exists
+                        ? new ResponseStatusException(HttpStatus.PRECONDITION_FAILED,
+                        "Customer with ID " + customerId + " was changed, its version is not " + expectedVersions)
+                        : new ResponseStatusException(HttpStatus.NOT_FOUND, "Customer with ID " + customerId + " not found")));
+    }
+
+    private Mono<Customer> loadCustomer(String customerId) {
+        return batchingEnabled ? customerBatchLoader.load(customerId) : customerRepository.findById(customerId);
+    }
+
+    //writes replace the cached entry before the caller gets the result, so it can always read its own write
+    private void cacheCustomer(Customer customer) {
+        customerCache.put(customer.getId(), CompletableFuture.completedFuture(customer));
     }
 }
@@ -0,0 +1,105 @@
+package nl.top.reactivemongodb.services;
+
+import org.bson.Document;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebInputException;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+//the fields an index can serve a filter or a sort on, taken from the @Indexed and @CompoundIndex declarations
+@Component
+public class IndexedFields {
+    private static final Set<String> EQUALITY_OPERATORS = Set.of("$eq", "$in");
+
+    private final MongoPersistentEntityIndexResolver resolver;
+    private final Map<Class<?>, Set<String>> leadingFields = new ConcurrentHashMap<>();
+    private final Map<Class<?>, List<List<String>>> indexKeys = new ConcurrentHashMap<>();
+
+    public IndexedFields(ReactiveMongoTemplate reactiveMongoTemplate) {
+        this.resolver = new MongoPersistentEntityIndexResolver(reactiveMongoTemplate.getConverter().getMappingContext());
+    }
+
+    //only the first key of an index can be used without an equality match on the keys before it
+    public Set<String> leadingFields(Class<?> entityClass) {
+        return leadingFields.computeIfAbsent(entityClass, type -> {
+            Set<String> fields = new HashSet<>();
+            fields.add("id");//the _id index always exists
+            for (IndexDefinition index : resolver.resolveIndexFor(type)) {
+                //the text index only serves $text searches
+                index.getIndexKeys().entrySet().stream()
+                        .findFirst()
+                        .filter(key -> !"text".equals(key.getValue()))
+                        .ifPresent(key -> fields.add(key.getKey()));
+            }
+            return Set.copyOf(fields);
+        });
+    }
+
+    //the keys of every index in order, without the text index, which only serves $text searches
+    List<List<String>> indexKeys(Class<?> entityClass) {
+        return indexKeys.computeIfAbsent(entityClass, type -> {
+            List<List<String>> indexes = new ArrayList<>();
+            indexes.add(List.of("id"));//the _id index always exists
+            for (IndexDefinition index : resolver.resolveIndexFor(type)) {
+                Document keys = index.getIndexKeys();
+                if (!keys.containsValue("text")) {
+                    indexes.add(keys.keySet().stream().map(key -> "_id".equals(key) ? "id" : key).toList());
+                }
+            }
+            return List.copyOf(indexes);
+        });
+    }
+
+    public Sort requireIndexed(Class<?> entityClass, Sort sort) {
+        return requireIndexed(entityClass, new Query(), sort);
+    }
+
+    //a sort is read in index order (either direction) when an index has the equality filters first, in any order,
+    //then the sort field and then the range filters, anything else would be an in-memory SORT or a scan of the whole index
+    public Sort requireIndexed(Class<?> entityClass, Query filter, Sort sort) {
+        if (sort.stream().count() > 1) {
+            throw new ServerWebInputException("Sorting is supported on one field at a time");
+        }
+        Set<String> equality = new HashSet<>();
+        Set<String> range = new HashSet<>();
+        filter.getQueryObject().forEach((field, condition) -> (isEquality(condition) ? equality : range).add(field));
+        sort.forEach(order -> {
+            String property = order.getProperty();
+            //a filter on the sort field itself is served by the same key
+            Set<String> before = new HashSet<>(equality);
+            before.remove(property);
+            Set<String> after = new HashSet<>(range);
+            after.remove(property);
+            if (indexKeys(entityClass).stream().noneMatch(keys -> serves(keys, before, property, after))) {
+                throw new ServerWebInputException("Can not sort on " + property + (filter.getQueryObject().isEmpty() ? ""
+                        : " with a filter on " + String.join(", ", filter.getQueryObject().keySet()))
+                        + ", supported without a filter are " + String.join(", ", leadingFields(entityClass).stream().sorted().toList()));
+            }
+        });
+        return sort;
+    }
+
+    private static boolean serves(List<String> keys, Set<String> equality, String sortField, Set<String> range) {
+        int sortPosition = equality.size();
+        return keys.size() >= sortPosition + 1 + range.size()
+                && Set.copyOf(keys.subList(0, sortPosition)).equals(equality)
+                && keys.get(sortPosition).equals(sortField)
+                && Set.copyOf(keys.subList(sortPosition + 1, sortPosition + 1 + range.size())).equals(range);
+    }
+
+    //a value, or an $in whose values Mongo reads one after the other and merges in sort order
+    private static boolean isEquality(Object condition) {
+        return !(condition instanceof Document operators)
+                || operators.keySet().stream().allMatch(key -> !key.startsWith("$") || EQUALITY_OPERATORS.contains(key));
+    }
+}
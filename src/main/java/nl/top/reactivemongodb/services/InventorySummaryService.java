@@ -0,0 +1,23 @@
+package nl.top.reactivemongodb.services;
+
+import nl.top.reactivemongodb.domain.Beer;
+import nl.top.reactivemongodb.model.InventorySummaryDTO;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+
+public interface InventorySummaryService {
+    //previous is null for an insert, current is null for a delete
+    Mono<Void> recordChange(Beer previous, Beer current);
+
+    Mono<Void> recordInserts(Collection<Beer> beers);
+
+    //all previous states come out and all current states go in, with one write for the whole set
+    Mono<Void> recordChanges(Collection<Beer> previous, Collection<Beer> current);
+
+    Flux<InventorySummaryDTO> getInventorySummary();
+
+    //rebuilds the summary from the beer collection, emits the number of scopes that had drifted
+    Mono<Integer> reconcile();
+}
@@ -0,0 +1,253 @@
+package nl.top.reactivemongodb.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import nl.top.reactivemongodb.domain.Beer;
+import nl.top.reactivemongodb.domain.InventorySummary;
+import nl.top.reactivemongodb.mapper.InventorySummaryMapper;
+import nl.top.reactivemongodb.model.InventorySummaryDTO;
+import org.bson.Document;
+import org.bson.types.Decimal128;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.ReactiveBulkOperations;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.ArithmeticOperators;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import static nl.top.reactivemongodb.domain.InventorySummary.ALL;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.group;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.newAggregation;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.project;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+//one small document per BeerStyle plus one for the whole catalog, moved by $inc on every beer write
+//the beer write and the $inc are not one transaction, the scheduled reconciliation repairs what gets lost
+@Slf4j
+@Service
+public class InventorySummaryServiceImpl implements InventorySummaryService {
+    private final ReactiveMongoTemplate reactiveMongoTemplate;
+    private final InventorySummaryMapper inventorySummaryMapper;
+    private final Counter driftCounter;
+
+    public InventorySummaryServiceImpl(ReactiveMongoTemplate reactiveMongoTemplate,
+                                       InventorySummaryMapper inventorySummaryMapper,
+                                       MeterRegistry meterRegistry) {
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+        this.inventorySummaryMapper = inventorySummaryMapper;
+        this.driftCounter = Counter.builder("inventory.summary.drift")
+                .description("Summary scopes that differed from the beer collection at reconciliation")
+                .register(meterRegistry);
+    }
+
+    private static final class Delta {
+        private long beerCount;
+        private long quantityOnHand;
+        private BigDecimal stockValue = BigDecimal.ZERO;
+
+        private void add(Beer beer, int sign) {
+            beerCount += sign;
+            quantityOnHand += (long) sign * quantityOf(beer);
+            stockValue = stockValue.add(stockValueOf(beer).multiply(BigDecimal.valueOf(sign)));
+        }
+
+        private boolean isZero() {
+            return beerCount == 0 && quantityOnHand == 0 && stockValue.signum() == 0;
+        }
+
+        private Update toUpdate() {
+            return new Update()
+                    .inc("beerCount", beerCount)
+                    .inc("totalQuantityOnHand", quantityOnHand)
+                    .inc("totalStockValue", new Decimal128(stockValue))
+                    .set("lastModifiedDate", LocalDateTime.now());
+        }
+    }
+
+    @Override
+    public Mono<Void> recordChange(Beer previous, Beer current) {
+        Map<String, Delta> deltas = new HashMap<>();
+        if (previous != null) {
+            addTo(deltas, previous, -1);
+        }
+        if (current != null) {
+            addTo(deltas, current, 1);
+        }
+        return apply(deltas);
+    }
+
+    @Override
+    public Mono<Void> recordInserts(Collection<Beer> beers) {
+        return recordChanges(List.of(), beers);
+    }
+
+    @Override
+    public Mono<Void> recordChanges(Collection<Beer> previous, Collection<Beer> current) {
+        Map<String, Delta> deltas = new HashMap<>();
+        previous.forEach(beer -> addTo(deltas, beer, -1));
+        current.forEach(beer -> addTo(deltas, beer, 1));
+        return apply(deltas);
+    }
+
+    @Override
+    public Flux<InventorySummaryDTO> getInventorySummary() {
+        return reactiveMongoTemplate.find(new Query().with(Sort.by(Sort.Direction.ASC, "id")), InventorySummary.class)
+                .map(inventorySummaryMapper::inventorySummaryToInventorySummaryDTO);
+    }
+
+    //@Scheduled takes milliseconds or an ISO-8601 duration, not the 1h style of the other properties
+    @Scheduled(initialDelayString = "${app.inventory-summary.reconcile-interval:PT1H}",
+            fixedDelayString = "${app.inventory-summary.reconcile-interval:PT1H}")
+    public void scheduledReconcile() {
+        reconcile().block();
+    }
+
+    @Override
+    public Mono<Integer> reconcile() {
+        return Mono.zip(computeSummaries(), reactiveMongoTemplate.findAll(InventorySummary.class)
+                        .collectMap(InventorySummary::getId))
+                .flatMap(summaries -> {
+                    Map<String, InventorySummary> expected = summaries.getT1();
+                    Map<String, InventorySummary> actual = summaries.getT2();
+                    Set<String> scopes = new HashSet<>(expected.keySet());
+                    scopes.addAll(actual.keySet());
+                    int drifted = 0;
+                    ReactiveBulkOperations bulkOps = reactiveMongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED,
+                            InventorySummary.class);
+                    for (String scope : scopes) {
+                        InventorySummary computed = expected.getOrDefault(scope, emptySummary(scope));
+                        InventorySummary stored = actual.getOrDefault(scope, emptySummary(scope));
+                        if (!sameTotals(computed, stored)) {
+                            drifted++;
+                            log.warn("Inventory summary {} drifted: stored {}/{}/{}, computed {}/{}/{}", scope,
+                                    stored.getBeerCount(), stored.getTotalQuantityOnHand(), stored.getTotalStockValue(),
+                                    computed.getBeerCount(), computed.getTotalQuantityOnHand(), computed.getTotalStockValue());
+                        }
+                        //a $inc that lands between the aggregation and this $set is lost, the next run picks it up
+                        bulkOps.upsert(query(where("id").is(scope)), new Update()
+                                .set("beerCount", computed.getBeerCount())
+                                .set("totalQuantityOnHand", computed.getTotalQuantityOnHand())
+                                .set("totalStockValue", new Decimal128(computed.getTotalStockValue()))
+                                .set("lastModifiedDate", LocalDateTime.now()));
+                    }
+                    driftCounter.increment(drifted);
+                    return bulkOps.execute().thenReturn(drifted);
+                });
+    }
+
+    private Mono<Map<String, InventorySummary>> computeSummaries() {
+        //price is a Decimal128, missing prices or quantities count as zero
+        ArithmeticOperators.Multiply stockValue = ArithmeticOperators.valueOf(ConditionalOperators.ifNull("price").then(0))
+                .multiplyBy(ConditionalOperators.ifNull("quantityOnHand").then(0));
+        return reactiveMongoTemplate.aggregate(newAggregation(Beer.class,
+                                project("beerStyle", "quantityOnHand").and(stockValue).as("stockValue"),
+                                group("beerStyle")
+                                        .count().as("beerCount")
+                                        .sum("quantityOnHand").as("totalQuantityOnHand")
+                                        .sum("stockValue").as("totalStockValue")),
+                        Document.class)
+                .collectList()
+                .map(groups -> {
+                    Map<String, InventorySummary> summaries = new HashMap<>();
+                    InventorySummary all = emptySummary(ALL);
+                    summaries.put(ALL, all);
+                    for (Document styleGroup : groups) {
+                        long beerCount = styleGroup.get("beerCount", Number.class).longValue();
+                        long quantityOnHand = styleGroup.get("totalQuantityOnHand", Number.class).longValue();
+                        BigDecimal value = toBigDecimal(styleGroup.get("totalStockValue", Number.class));
+                        all.setBeerCount(all.getBeerCount() + beerCount);
+                        all.setTotalQuantityOnHand(all.getTotalQuantityOnHand() + quantityOnHand);
+                        all.setTotalStockValue(all.getTotalStockValue().add(value));
+                        //beers without a style only count towards ALL
+                        if (styleGroup.get("_id") != null) {
+                            String scope = styleGroup.get("_id").toString();
+                            summaries.put(scope, InventorySummary.builder()
+                                    .id(scope)
+                                    .beerCount(beerCount)
+                                    .totalQuantityOnHand(quantityOnHand)
+                                    .totalStockValue(value)
+                                    .build());
+                        }
+                    }
+                    return summaries;
+                });
+    }
+
+    private Mono<Void> apply(Map<String, Delta> deltas) {
+        //an update that moves none of the totals, like a rename, does not touch the summary
+        ReactiveBulkOperations bulkOps = reactiveMongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED,
+                InventorySummary.class);
+        boolean changed = false;
+        for (Map.Entry<String, Delta> delta : deltas.entrySet()) {
+            if (!delta.getValue().isZero()) {
+                bulkOps.upsert(query(where("id").is(delta.getKey())), delta.getValue().toUpdate());
+                changed = true;
+            }
+        }
+        if (!changed) {
+            return Mono.empty();
+        }
+        //the beer is already written at this point, failing the request would only hide that
+        return bulkOps.execute()
+                .then()
+                .onErrorResume(error -> {
+                    log.warn("Could not update the inventory summary, the next reconciliation repairs it", error);
+                    return Mono.empty();
+                });
+    }
+
+    private static void addTo(Map<String, Delta> deltas, Beer beer, int sign) {
+        deltas.computeIfAbsent(ALL, scope -> new Delta()).add(beer, sign);
+        if (beer.getBeerStyle() != null) {
+            deltas.computeIfAbsent(beer.getBeerStyle().name(), scope -> new Delta()).add(beer, sign);
+        }
+    }
+
+    private static long quantityOf(Beer beer) {
+        return beer.getQuantityOnHand() == null ? 0 : beer.getQuantityOnHand();
+    }
+
+    private static BigDecimal stockValueOf(Beer beer) {
+        return beer.getPrice() == null ? BigDecimal.ZERO : beer.getPrice().multiply(BigDecimal.valueOf(quantityOf(beer)));
+    }
+
+    //$sum stays an int when none of the beers in the group has a price
+    private static BigDecimal toBigDecimal(Number number) {
+        if (number == null) {
+            return BigDecimal.ZERO;
+        }
+        return number instanceof Decimal128 decimal ? decimal.bigDecimalValue() : new BigDecimal(number.toString());
+    }
+
+    private static InventorySummary emptySummary(String scope) {
+        return InventorySummary.builder()
+                .id(scope)
+                .totalStockValue(BigDecimal.ZERO)
+                .build();
+    }
+
+    private static boolean sameTotals(InventorySummary first, InventorySummary second) {
+        return first.getBeerCount() == second.getBeerCount()
+                && first.getTotalQuantityOnHand() == second.getTotalQuantityOnHand()
+                && Objects.requireNonNullElse(first.getTotalStockValue(), BigDecimal.ZERO)
+                .compareTo(Objects.requireNonNullElse(second.getTotalStockValue(), BigDecimal.ZERO)) == 0;
+    }
+}
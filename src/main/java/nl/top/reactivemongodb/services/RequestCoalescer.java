@@ -0,0 +1,46 @@
+package nl.top.reactivemongodb.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+//single-flight: concurrent lookups for the same key share one query instead of each hitting Mongo
+public class RequestCoalescer<K, V> {
+
+    private final Map<K, Mono<V>> inFlight = new ConcurrentHashMap<>();
+    private final Counter executed;
+    private final Counter coalesced;
+
+    public RequestCoalescer(String name, MeterRegistry meterRegistry) {
+        this.executed = Counter.builder("coalescer.requests")
+                .description("Lookups that ran their own query or joined one already in flight")
+                .tag("name", name)
+                .tag("outcome", "executed")
+                .register(meterRegistry);
+        this.coalesced = Counter.builder("coalescer.requests")
+                .description("Lookups that ran their own query or joined one already in flight")
+                .tag("name", name)
+                .tag("outcome", "coalesced")
+                .register(meterRegistry);
+    }
+
+    public Mono<V> execute(K key, Function<K, Mono<V>> loader) {
+        return Mono.defer(() -> {
+            AtomicBoolean leader = new AtomicBoolean(false);
+            Mono<V> shared = inFlight.computeIfAbsent(key, k -> {
+                leader.set(true);
+                //the entry is removed once the query terminates, later callers start a fresh one
+                return loader.apply(k)
+                        .doFinally(signal -> inFlight.remove(k))
+                        .cache();
+            });
+            (leader.get() ? executed : coalesced).increment();
+            return shared;
+        });
+    }
+}
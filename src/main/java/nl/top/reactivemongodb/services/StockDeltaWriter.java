@@ -0,0 +1,124 @@
+package nl.top.reactivemongodb.services;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.mongodb.bulk.BulkWriteError;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import nl.top.reactivemongodb.domain.Beer;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.ReactiveBulkOperations;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+//writes the buffered stock deltas of one flush, see WriteBehindBuffer
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class StockDeltaWriter {
+    //server errors a later flush can get past, any other failed update is dropped instead of retried forever
+    private static final Set<Integer> TRANSIENT_ERROR_CODES = Set.of(
+            50,     //MaxTimeMSExpired
+            91,     //ShutdownInProgress
+            112,    //WriteConflict
+            189,    //PrimarySteppedDown
+            10107,  //NotWritablePrimary
+            11600,  //InterruptedAtShutdown
+            11602,  //InterruptedDueToReplStateChange
+            13435); //NotPrimaryNoSecondaryOk
+
+    private final ReactiveMongoTemplate reactiveMongoTemplate;
+    private final InventorySummaryService inventorySummaryService;
+    private final AsyncCache<String, Beer> beerCache;
+
+    //one unordered bulk with a $inc per beer, emits the deltas that were not applied and can be retried
+    //built on subscription, so nothing thrown while building it escapes the buffer's error handling
+    public Mono<Map<String, Long>> write(Map<String, Long> deltas) {
+        return Mono.defer(() -> {
+            List<String> beerIds = new ArrayList<>();
+            deltas.forEach((beerId, delta) -> {
+                //quantityOnHand is an int, a merged delta past that can never be applied
+                if (delta < Integer.MIN_VALUE || delta > Integer.MAX_VALUE) {
+                    log.error("Dropping stock delta {} for beer {}, it does not fit the quantity on hand", delta, beerId);
+                } else {
+                    beerIds.add(beerId);
+                }
+            });
+            if (beerIds.isEmpty()) {
+                return Mono.just(Map.<String, Long>of());
+            }
+            LocalDateTime now = LocalDateTime.now();
+            ReactiveBulkOperations bulkOps = reactiveMongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Beer.class);
+            beerIds.forEach(beerId -> bulkOps.updateOne(query(where("id").is(beerId)), new Update()
+                    .inc("quantityOnHand", deltas.get(beerId).intValue())
+                    .set("lastModifiedDate", now)
+                    .inc("version", 1)));
+            return bulkOps.execute()
+                    .doOnNext(result -> {
+                        if (result.getMatchedCount() < beerIds.size()) {
+                            log.warn("{} buffered stock deltas were for beers that no longer exist",
+                                    beerIds.size() - result.getMatchedCount());
+                        }
+                    })
+                    .thenReturn(Map.<String, BulkWriteError>of())
+                    .onErrorResume(error -> {
+                        List<BulkWriteError> writeErrors = BulkInsertSupport.writeErrors(error);
+                        if (writeErrors == null) {
+                            return Mono.error(error);
+                        }
+                        //unordered: only the reported updates failed, the others must not be written twice
+                        Map<String, BulkWriteError> failed = new HashMap<>();
+                        writeErrors.forEach(writeError -> failed.put(beerIds.get(writeError.getIndex()), writeError));
+                        return Mono.just(failed);
+                    })
+                    //the $inc is in, a failure after it must not send the batch back to the buffer to be applied twice
+                    .flatMap(failed -> afterWrite(beerIds, deltas, failed.keySet())
+                            .onErrorResume(error -> {
+                                log.warn("Stock deltas written, but updating the inventory summary failed", error);
+                                return Mono.empty();
+                            })
+                            .then(Mono.fromSupplier(() -> retried(deltas, failed))));
+        });
+    }
+
+    //a transient failure goes back to the buffer, anything else would fail the same way on every flush
+    private Map<String, Long> retried(Map<String, Long> deltas, Map<String, BulkWriteError> failed) {
+        Map<String, Long> retried = new HashMap<>();
+        failed.forEach((beerId, writeError) -> {
+            if (TRANSIENT_ERROR_CODES.contains(writeError.getCode())) {
+                retried.put(beerId, deltas.get(beerId));
+            } else {
+                log.error("Dropping stock delta {} for beer {}: {}", deltas.get(beerId), beerId, writeError.getMessage());
+            }
+        });
+        return retried;
+    }
+
+    //the bulk bypasses the service, so the summary and cache are brought in line here
+    private Mono<Void> afterWrite(List<String> beerIds, Map<String, Long> deltas, Set<String> failed) {
+        List<String> applied = beerIds.stream()
+                .filter(beerId -> !failed.contains(beerId))
+                .toList();
+        beerCache.synchronous().invalidateAll(applied);
+        return reactiveMongoTemplate.find(query(where("id").in(applied)), Beer.class)
+                .collectList()
+                .flatMap(current -> inventorySummaryService.recordChanges(current.stream()
+                        .map(beer -> Beer.builder()
+                                .beerStyle(beer.getBeerStyle())
+                                .price(beer.getPrice())
+                                .quantityOnHand(beer.getQuantityOnHand() - deltas.get(beer.getId()).intValue())
+                                .build())
+                        .toList(), current));
+    }
+}
@@ -0,0 +1,103 @@
+package nl.top.reactivemongodb.services;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+//accumulates numeric deltas per key and hands them to the writer as one batch per flush
+//the map is striped per bin, so adds for different keys don't contend and adds for one key are merged in place
+@Slf4j
+public class WriteBehindBuffer<K> implements AutoCloseable {
+    private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(10);
+
+    private final ConcurrentHashMap<K, Long> pending = new ConcurrentHashMap<>();
+    //the writer emits the deltas it could not apply, they are merged back for the next flush
+    private final Function<Map<K, Long>, Mono<Map<K, Long>>> writer;
+    private final int maxPending;
+    private final Sinks.Many<Boolean> flushRequests = Sinks.many().unicast().onBackpressureBuffer();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final Timer flushTimer;
+    private final Sinks.One<Boolean> stop = Sinks.one();
+    private final Sinks.Empty<Void> stopped = Sinks.empty();
+
+    public WriteBehindBuffer(String name, Function<Map<K, Long>, Mono<Map<K, Long>>> writer, int maxPending,
+                             Duration flushInterval, MeterRegistry meterRegistry) {
+        this.writer = writer;
+        this.maxPending = maxPending;
+        Gauge.builder("write.behind.pending", pending, Map::size)
+                .description("Keys with a delta that has not been written yet")
+                .tag("name", name)
+                .register(meterRegistry);
+        this.flushTimer = Timer.builder("write.behind.flush")
+                .description("Time to write one flush")
+                .tag("name", name)
+                .register(meterRegistry);
+        //flushes run one after the other, ticks that arrive while one is running are dropped
+        //a stop ends the ticks, concatMap still lets the running flush finish before the worker completes
+        Flux.merge(Flux.interval(flushInterval).map(tick -> true), flushRequests.asFlux())
+                .takeUntilOther(stop.asMono())
+                .onBackpressureDrop()
+                .concatMap(request -> flush(), 1)
+                .doFinally(signal -> stopped.tryEmitEmpty())
+                .subscribe();
+    }
+
+    public void add(K key, long delta) {
+        //a key whose deltas cancel out is removed instead of being written as +0
+        pending.merge(key, delta, (current, added) -> current + added == 0 ? null : current + added);
+        if (pending.size() >= maxPending && flushRequested.compareAndSet(false, true)) {
+            flushRequests.tryEmitNext(true);
+        }
+    }
+
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    public Mono<Void> flush() {
+        return Mono.defer(() -> {
+            flushRequested.set(false);
+            //remove is atomic per key, a delta added after it starts a new entry for the next flush
+            Map<K, Long> batch = new HashMap<>();
+            for (K key : pending.keySet()) {
+                Long delta = pending.remove(key);
+                if (delta != null) {
+                    batch.put(key, delta);
+                }
+            }
+            if (batch.isEmpty()) {
+                return Mono.empty();
+            }
+            Timer.Sample sample = Timer.start();
+            //deferred so a writer that throws instead of erroring keeps the batch like any other failure
+            return Mono.defer(() -> writer.apply(batch))
+                    .onErrorResume(error -> {
+                        log.warn("Write-behind flush of {} keys failed, keeping the deltas", batch.size(), error);
+                        return Mono.just(batch);
+                    })
+                    .doOnNext(unapplied -> unapplied.forEach(this::add))
+                    .doFinally(signal -> sample.stop(flushTimer))
+                    .then();
+        });
+    }
+
+    //called by Spring on shutdown, whatever is still pending is written before the application stops
+    //the worker is not cancelled: the batch of a running flush is already out of pending and would be lost
+    @Override
+    public void close() {
+        stop.tryEmitValue(true);
+        stopped.asMono().block(CLOSE_TIMEOUT);
+        flush().block(CLOSE_TIMEOUT);
+    }
+}
@@ -7,19 +7,42 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.web.reactive.function.server.RouterFunction;
 import org.springframework.web.reactive.function.server.ServerResponse;
 
+import static org.springframework.http.MediaType.TEXT_EVENT_STREAM;
+import static org.springframework.web.reactive.function.server.RequestPredicates.accept;
+import static org.springframework.web.reactive.function.server.RouterFunctions.route;
+
 @Configuration
 public class BeerRouterConfig extends GenericRouterConfig<ResourceHandler<BeerHandler>> {
 
     public static final String BEER_PATH = "/api/v3/beer";
     public static final String BEER_PATH_ID = BEER_PATH + "/{beerId}";
+    public static final String BEER_STATS_PATH = BEER_PATH + "/stats";
+    public static final String INVENTORY_SUMMARY_PATH = BEER_PATH + "/inventory-summary";
+    public static final String BEER_STOCK_PATH = BEER_PATH_ID + "/stock";
+    public static final String BEER_AUTOCOMPLETE_PATH = BEER_PATH + "/autocomplete";
+    public static final String BEER_FEED_PATH = BEER_PATH + "/feed";
+
+    private final BeerHandler beerHandler;
 
     public BeerRouterConfig(BeerHandler handler) {
         super(BEER_PATH, BEER_PATH_ID, handler);
+        this.beerHandler = handler;
     }
 
     @Bean
     public RouterFunction<ServerResponse> beerRoutes(){
-        return super.routes();
+        //beer specific routes go first, otherwise /stats would be taken as a beerId
+        return route()
+                .GET(BEER_STATS_PATH, accept(ENTITY_TYPES), beerHandler::getStats)
+                .GET(INVENTORY_SUMMARY_PATH, accept(ENTITY_TYPES), beerHandler::getInventorySummary)
+                .GET(BEER_AUTOCOMPLETE_PATH, accept(ENTITY_TYPES), beerHandler::autocomplete)
+                .GET(BEER_FEED_PATH, accept(TEXT_EVENT_STREAM), beerHandler::feed)
+                .POST(BEER_STOCK_PATH + "/increment", accept(ENTITY_TYPES), beerHandler::incrementStock)
+                .POST(BEER_STOCK_PATH + "/decrement", accept(ENTITY_TYPES), beerHandler::decrementStock)
+                .POST(BEER_STOCK_PATH + "/reserve", accept(ENTITY_TYPES), beerHandler::reserveStock)
+                .POST(BEER_STOCK_PATH + "/adjustments", accept(ENTITY_TYPES), beerHandler::adjustStock)
+                .build()
+                .and(super.routes());
     }
 
 }
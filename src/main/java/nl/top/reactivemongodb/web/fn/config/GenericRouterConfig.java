@@ -2,15 +2,23 @@ package nl.top.reactivemongodb.web.fn.config;
 
 import nl.top.reactivemongodb.web.fn.handlers.ResourceHandler;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
 import org.springframework.web.reactive.function.server.RouterFunction;
 import org.springframework.web.reactive.function.server.ServerResponse;
 
+import static org.springframework.http.MediaType.APPLICATION_CBOR;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.http.MediaType.APPLICATION_NDJSON;
+import static org.springframework.http.MediaType.TEXT_EVENT_STREAM;
 import static org.springframework.web.reactive.function.server.RequestPredicates.accept;
 import static org.springframework.web.reactive.function.server.RouterFunctions.route;
 
 @Configuration
 public abstract class GenericRouterConfig<T extends ResourceHandler<?>> {
+    public static final MediaType APPLICATION_SMILE = MediaType.parseMediaType("application/x-jackson-smile");
+    //what the entity routes answer with, a client that accepts anything still gets JSON, see CodecConfig
+    public static final MediaType[] ENTITY_TYPES = {APPLICATION_JSON, APPLICATION_CBOR, APPLICATION_SMILE};
+
     protected String basePath;
     protected String basePathWithId;
     protected T handler;
@@ -23,12 +31,18 @@ public abstract class GenericRouterConfig<T extends ResourceHandler<?>> {
 
     public RouterFunction<ServerResponse> routes() {
         return route()
-                .GET(basePath, accept(APPLICATION_JSON), handler::getList)
-                .GET(basePathWithId, accept(APPLICATION_JSON), handler::getById)
-                .POST(basePath, accept(APPLICATION_JSON), handler::create)
-                .PUT(basePathWithId, accept(APPLICATION_JSON), handler::updateById)
-                .PATCH(basePathWithId, accept(APPLICATION_JSON), handler::patchById)
-                .DELETE(basePathWithId, accept(APPLICATION_JSON), handler::deleteById)
+                .GET(basePath, accept(ENTITY_TYPES), handler::getList)
+                //registered after the entity route so */* keeps getting a JSON array
+                .GET(basePath, accept(APPLICATION_NDJSON, TEXT_EVENT_STREAM), handler::streamList)
+                //before the id route, otherwise search would be taken as an id
+                .GET(basePath + "/search", accept(ENTITY_TYPES), handler::search)
+                .GET(basePath + "/changes", accept(ENTITY_TYPES), handler::changes)
+                .GET(basePathWithId, accept(ENTITY_TYPES), handler::getById)
+                .POST(basePath, accept(ENTITY_TYPES), handler::create)
+                .POST(basePath + "/batch", accept(ENTITY_TYPES), handler::createBatch)
+                .PUT(basePathWithId, accept(ENTITY_TYPES), handler::updateById)
+                .PATCH(basePathWithId, accept(ENTITY_TYPES), handler::patchById)
+                .DELETE(basePathWithId, accept(ENTITY_TYPES), handler::deleteById)
                 .build();
 
 
@@ -1,44 +1,196 @@
 package nl.top.reactivemongodb.web.fn.handlers;
 
 import lombok.RequiredArgsConstructor;
+import nl.top.reactivemongodb.changestream.BeerChangeBroadcaster;
 import nl.top.reactivemongodb.domain.BeerStyle;
 import nl.top.reactivemongodb.model.BeerDTO;
+import nl.top.reactivemongodb.model.InventorySummaryDTO;
+import nl.top.reactivemongodb.model.StockAdjustmentDTO;
+import nl.top.reactivemongodb.model.StockDeltaDTO;
+import nl.top.reactivemongodb.model.StockLevelDTO;
 import nl.top.reactivemongodb.services.BeerService;
+import nl.top.reactivemongodb.services.InventorySummaryService;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ServerWebInputException;
 import org.springframework.web.util.UriComponentsBuilder;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+
 import static nl.top.reactivemongodb.web.fn.config.BeerRouterConfig.BEER_PATH_ID;
 
 @Component
 @RequiredArgsConstructor
 public class BeerHandler implements ResourceHandler<BeerHandler> {
 
+    private static final int DEFAULT_SUGGESTIONS = 10;
+    private static final int MAX_SUGGESTIONS = 50;
+    private static final ParameterizedTypeReference<Map<String, Object>> PROJECTED_BEER = new ParameterizedTypeReference<>() {
+    };
+    private static final ParameterizedTypeReference<ServerSentEvent<BeerDTO>> BEER_EVENT = new ParameterizedTypeReference<>() {
+    };
+    private static final Duration HEARTBEAT_INTERVAL = Duration.ofSeconds(15);
+
     private final BeerService beerService;
+    private final InventorySummaryService inventorySummaryService;
+    private final ConditionalResponses conditionalResponses;
 
     @Override
     public Mono<ServerResponse> getList(ServerRequest request) {
-        Flux<BeerDTO> flux;
-        if (request.queryParam("beerStyle").isPresent()) {
-            flux = beerService.findByBeerStyle(BeerStyle.valueOf(request.queryParam("beerStyle").get()));
-        } else if (request.queryParam("beerName").isPresent()) {
-            flux = beerService.findFirstByBeerName(request.queryParam("beerName").get()).flux();
-        } else {
-            flux = beerService.listBeers();
+        if (request.queryParam("ids").isPresent()) {
+            return beerService.getBeersByIds(requestedIds(request))
+                    .flatMap(result -> ServerResponse.ok().bodyValue(result));
+        }
+        String cursor = request.queryParam("cursor").orElse(null);
+        List<String> fields = request.queryParams().get("fields");
+        return conditionalResponses.list(request, beerService.getListVersion(), response -> {
+            if (fields != null) {
+                return beerService.listBeerFields(request.queryParams(), sort(request), fields, cursor, pageSize(request))
+                        .flatMap(page -> pageResponse(request, page, response));
+            }
+            //the filter parameters (beerStyle, minPrice, ...) are compiled into the Mongo query, see BeerFilterCompiler
+            return beerService.listBeers(request.queryParams(), sort(request), cursor, pageSize(request))
+                    .flatMap(page -> pageResponse(request, page, response));
+        });
+    }
+
+    @Override
+    public Mono<ServerResponse> streamList(ServerRequest request) {
+        //each beer is flushed as soon as the Mongo cursor emits it, demand flows back to the driver
+        List<String> fields = request.queryParams().get("fields");
+        if (fields != null) {
+            return ServerResponse
+                    .ok()
+                    .contentType(streamingMediaType(request))
+                    .body(beerService.listBeerFields(request.queryParams(), sort(request), fields), PROJECTED_BEER);
         }
         return ServerResponse
                 .ok()
-                .body(flux, BeerDTO.class);
+                .contentType(streamingMediaType(request))
+                .body(beerService.listBeers(request.queryParams(), sort(request)), BeerDTO.class);
     }
 
     @Override
-    public Mono<ServerResponse> getById(ServerRequest request) {
+    public Mono<ServerResponse> search(ServerRequest request) {
+        return beerService.searchBeers(searchText(request), pageNumber(request), pageSize(request))
+                .flatMap(slice -> sliceResponse(request, slice));
+    }
+
+    @Override
+    public Mono<ServerResponse> changes(ServerRequest request) {
+        return beerService.getChangesSince(request.queryParam("since").orElse(null), pageSize(request))
+                .flatMap(changeSet -> ServerResponse.ok().bodyValue(changeSet));
+    }
+
+    public Mono<ServerResponse> autocomplete(ServerRequest request) {
+        String prefix = request.queryParam("prefix").orElse("");
+        int limit;
+        try {
+            limit = request.queryParam("limit").map(Integer::parseInt).orElse(DEFAULT_SUGGESTIONS);
+        } catch (NumberFormatException e) {
+            throw new ServerWebInputException("Invalid limit " + request.queryParam("limit").orElse(""));
+        }
+        //at most MAX_SUGGESTIONS, written as one value so CBOR, which can't encode a Flux, works as well
+        return beerService.autocompleteBeerName(prefix, Math.max(1, Math.min(limit, MAX_SUGGESTIONS)))
+                .collectList()
+                .flatMap(suggestions -> ServerResponse.ok().bodyValue(suggestions));
+    }
+
+    public Mono<ServerResponse> getStats(ServerRequest request) {
+        //one row per style, written as one value like the suggestions
+        return beerService.getBeerStyleStats(dateTimeParam(request, "from"), dateTimeParam(request, "to"))
+                .collectList()
+                .flatMap(stats -> ServerResponse.ok().bodyValue(stats));
+    }
+
+    //server-sent events for ?ids= and ?beerStyle=, an invalidate event means the client has to reload what it shows
+    //?overflow=latest keeps only the newest event for a client that can't keep up, the default drops the oldest
+    public Mono<ServerResponse> feed(ServerRequest request) {
+        List<BeerStyle> beerStyles = request.queryParams().getOrDefault("beerStyle", List.of()).stream()
+                .flatMap(value -> Arrays.stream(value.split(",")))
+                .map(String::trim)
+                .filter(StringUtils::hasText)
+                .map(value -> enumParam("beerStyle", value, BeerStyle.class))
+                .toList();
+        BeerChangeBroadcaster.Overflow overflow = request.queryParam("overflow")
+                .map(value -> enumParam("overflow", value.replace('-', '_'), BeerChangeBroadcaster.Overflow.class))
+                .orElse(BeerChangeBroadcaster.Overflow.DROP_OLDEST);
+        Flux<ServerSentEvent<BeerDTO>> changes = beerService.watchBeers(requestedIds(request), beerStyles, overflow)
+                .map(event -> ServerSentEvent.<BeerDTO>builder()
+                        .event(event.getType().name().toLowerCase())
+                        .data(event.getDocument() != null || event.getId() == null ? event.getDocument()
+                                : BeerDTO.builder().id(event.getId()).build())
+                        .build());
+        //keeps proxies from closing the connection of a client that watches a quiet beer
+        Flux<ServerSentEvent<BeerDTO>> heartbeats = Flux.interval(HEARTBEAT_INTERVAL)
+                .onBackpressureDrop()
+                .map(tick -> ServerSentEvent.<BeerDTO>builder().comment("heartbeat").build());
+        return ServerResponse
+                .ok()
+                .contentType(MediaType.TEXT_EVENT_STREAM)
+                .body(Flux.merge(changes, heartbeats), BEER_EVENT);
+    }
+
+    private static <E extends Enum<E>> E enumParam(String name, String value, Class<E> type) {
+        try {
+            return Enum.valueOf(type, value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new ServerWebInputException("Invalid " + name + " " + value);
+        }
+    }
+
+    public Mono<ServerResponse> getInventorySummary(ServerRequest request) {
         return ServerResponse
                 .ok()
-                .body(beerService.getBeerById(request.pathVariable("beerId")), BeerDTO.class);
+                .body(inventorySummaryService.getInventorySummary(), InventorySummaryDTO.class);
+    }
+
+    public Mono<ServerResponse> incrementStock(ServerRequest request) {
+        return adjustStock(request, beerService::incrementStock);
+    }
+
+    public Mono<ServerResponse> decrementStock(ServerRequest request) {
+        return adjustStock(request, beerService::decrementStock);
+    }
+
+    public Mono<ServerResponse> reserveStock(ServerRequest request) {
+        return adjustStock(request, beerService::reserveStock);
+    }
+
+    //202 when the delta was buffered for a later write
+    public Mono<ServerResponse> adjustStock(ServerRequest request) {
+        return request.bodyToMono(StockDeltaDTO.class)
+                .filter(adjustment -> adjustment.getDelta() != null)
+                .switchIfEmpty(Mono.error(new ServerWebInputException("delta is required")))
+                .flatMap(adjustment -> beerService.adjustStock(request.pathVariable("beerId"), adjustment.getDelta())
+                        .flatMap(stockLevel -> ServerResponse.ok().bodyValue(stockLevel))
+                        .switchIfEmpty(ServerResponse.accepted().build()));
+    }
+
+    private Mono<ServerResponse> adjustStock(ServerRequest request,
+                                             BiFunction<String, Integer, Mono<StockLevelDTO>> operation) {
+        return request.bodyToMono(StockAdjustmentDTO.class)
+                .filter(adjustment -> adjustment.getQuantity() != null)
+                .switchIfEmpty(Mono.error(new ServerWebInputException("quantity is required")))
+                .flatMap(adjustment -> operation.apply(request.pathVariable("beerId"), adjustment.getQuantity()))
+                .flatMap(stockLevel -> ServerResponse.ok().bodyValue(stockLevel));
+    }
+
+    @Override
+    public Mono<ServerResponse> getById(ServerRequest request) {
+        return beerService.getBeerById(request.pathVariable("beerId"))
+                .flatMap(beer -> conditionalResponses.entity(request, beer, beer.getVersion(), beer.getLastModifiedDate()));
     }
     @Override
     public Mono<ServerResponse> create(ServerRequest request) {
@@ -46,23 +198,33 @@ public class BeerHandler implements ResourceHandler<BeerHandler> {
                 .flatMap(beerService::saveBeer)
                 .flatMap(savedBeer -> ServerResponse.created(UriComponentsBuilder
                         .fromPath(BEER_PATH_ID)
-                        .build(savedBeer.getId())).build());
+                        .build(savedBeer.getId()))
+                        .eTag(conditionalResponses.eTag(savedBeer.getVersion()))
+                        .build());
+    }
+    @Override
+    public Mono<ServerResponse> createBatch(ServerRequest request) {
+        //the body is decoded element by element, a JSON array or NDJSON both work
+        return beerService.saveBeers(request.bodyToFlux(BeerDTO.class))
+                .flatMap(result -> ServerResponse.ok().bodyValue(result));
     }
     @Override
     public Mono<ServerResponse> updateById(ServerRequest request) {
         return request.bodyToMono(BeerDTO.class)
-                .flatMap(beerDTO -> beerService.updateBeer(request.pathVariable("beerId"), beerDTO))
-                .flatMap(savedDTO -> ServerResponse.noContent().build());
+                .flatMap(beerDTO -> beerService.updateBeer(request.pathVariable("beerId"), beerDTO,
+                        conditionalResponses.expectedVersions(request)))
+                .flatMap(savedDTO -> ServerResponse.noContent().eTag(conditionalResponses.eTag(savedDTO.getVersion())).build());
     }
     @Override
     public Mono<ServerResponse> patchById(ServerRequest request) {
         return request.bodyToMono(BeerDTO.class)
-                .flatMap(beerDTO -> beerService.patchBeerById(request.pathVariable("beerId"), beerDTO))
-                .flatMap(savedDTO -> ServerResponse.noContent().build());
+                .flatMap(beerDTO -> beerService.patchBeerById(request.pathVariable("beerId"), beerDTO,
+                        conditionalResponses.expectedVersions(request)))
+                .flatMap(savedDTO -> ServerResponse.noContent().eTag(conditionalResponses.eTag(savedDTO.getVersion())).build());
     }
     @Override
     public Mono<ServerResponse> deleteById(ServerRequest request) {
-        return beerService.deleteBeerById(request.pathVariable("beerId"))
+        return beerService.deleteBeerById(request.pathVariable("beerId"), conditionalResponses.expectedVersions(request))
                 .then(ServerResponse.noContent().build());
     }
 }
@@ -0,0 +1,153 @@
+package nl.top.reactivemongodb.web.fn.handlers;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static nl.top.reactivemongodb.web.fn.config.GenericRouterConfig.APPLICATION_SMILE;
+import static nl.top.reactivemongodb.web.fn.config.GenericRouterConfig.ENTITY_TYPES;
+import static org.springframework.http.MediaType.APPLICATION_CBOR;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+
+//ETag and Last-Modified on the GET endpoints, a client that polls gets a 304 without a body when nothing changed
+//the @Version of a document is its ETag, If-Match on a write is checked against it
+//a CBOR or Smile body is another representation than the JSON one, so it gets its own tag: "3" for JSON, "3-cbor" for CBOR
+@Component
+public class ConditionalResponses {
+    private static final Pattern VERSION_TAG = Pattern.compile("\"(\\d{1,18})(-[a-z]+)?\"");
+    private static final Map<MediaType, String> FORMAT_SUFFIXES = Map.of(APPLICATION_CBOR, "-cbor", APPLICATION_SMILE, "-smile");
+    //the same URL answers in another format or compressed depending on these, a cache must not hand one to the other
+    private static final String[] VARY = {HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING};
+
+    public String eTag(Long version) {
+        return "\"" + version + "\"";
+    }
+
+    String eTag(ServerRequest request, Long version) {
+        return "\"" + version + formatSuffix(request) + "\"";
+    }
+
+    //a 304 is decided on the version alone, the body is only serialized for a 200
+    public Mono<ServerResponse> entity(ServerRequest request, Object body, Long version, LocalDateTime lastModifiedDate) {
+        String eTag = eTag(request, version);
+        //the dates are stored as local time of this JVM, the same zone the mapping converted them with
+        Instant lastModified = lastModifiedDate == null ? null : lastModifiedDate.atZone(ZoneId.systemDefault()).toInstant();
+        if (isNotModified(request, eTag, lastModified)) {
+            return notModified(eTag, lastModified);
+        }
+        ServerResponse.BodyBuilder response = ServerResponse.ok().eTag(eTag).varyBy(VARY);
+        if (lastModified != null) {
+            response.lastModified(lastModified);
+        }
+        return response.bodyValue(body);
+    }
+
+    //If-Match: "3" or "3-cbor" expects version 3, no header or * sets no condition
+    //If-Match uses the strong comparison, so a weak or foreign tag can never match and fails right away
+    public List<Long> expectedVersions(ServerRequest request) {
+        List<String> ifMatch = request.headers().asHttpHeaders().getIfMatch();
+        if (ifMatch.isEmpty() || ifMatch.contains("*")) {
+            return List.of();
+        }
+        List<Long> versions = ifMatch.stream()
+                .map(VERSION_TAG::matcher)
+                .filter(Matcher::matches)
+                .map(tag -> Long.valueOf(tag.group(1)))
+                .toList();
+        if (versions.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "If-Match " + ifMatch + " matches no version");
+        }
+        return versions;
+    }
+
+    //the list is only queried and serialized when the collection version changed
+    //the version is read before the list, so a write in between at worst costs the client one extra full response
+    //the tag is weak, the page is not byte for byte the same for every request with that version
+    //the query is part of the tag, another filter, sort, projection, cursor or page size is another list
+    public Mono<ServerResponse> list(ServerRequest request, Mono<String> collectionVersion,
+                                     Function<ServerResponse.BodyBuilder, Mono<ServerResponse>> response) {
+        return collectionVersion.flatMap(version -> {
+            String eTag = listETag(request, version);
+            if (isNotModified(request, eTag, null)) {
+                return notModified(eTag, null);
+            }
+            return response.apply(ServerResponse.ok().eTag(eTag).varyBy(VARY));
+        });
+    }
+
+    static String listETag(ServerRequest request, String collectionVersion) {
+        String tagged = collectionVersion + "?" + normalizedQuery(request);
+        return "W/\"" + DigestUtils.md5DigestAsHex(tagged.getBytes(StandardCharsets.UTF_8)) + formatSuffix(request) + "\"";
+    }
+
+    //the parameters sorted by name, so ?size=5&sort=price and ?sort=price&size=5 share a tag
+    //repeated values keep their order, they may decide the order of the page
+    static String normalizedQuery(ServerRequest request) {
+        return new TreeMap<>(request.queryParams()).entrySet().stream()
+                .flatMap(param -> param.getValue().stream()
+                        .map(value -> encode(param.getKey()) + "=" + (value == null ? "" : encode(value))))
+                .collect(Collectors.joining("&"));
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    //If-None-Match wins over If-Modified-Since (RFC 9110 13.2.2), it is compared weakly
+    static boolean isNotModified(ServerRequest request, String eTag, Instant lastModified) {
+        HttpHeaders headers = request.headers().asHttpHeaders();
+        List<String> ifNoneMatch = headers.getIfNoneMatch();
+        if (!ifNoneMatch.isEmpty()) {
+            return ifNoneMatch.stream().anyMatch(candidate -> "*".equals(candidate) || opaqueTag(candidate).equals(opaqueTag(eTag)));
+        }
+        long ifModifiedSince = headers.getIfModifiedSince();
+        //HTTP dates only have seconds
+        return lastModified != null && ifModifiedSince != -1 && lastModified.getEpochSecond() <= ifModifiedSince / 1000;
+    }
+
+    //the format the writers will pick: the accepted entity type with the highest quality, JSON on a tie or */*
+    static String formatSuffix(ServerRequest request) {
+        MediaType format = APPLICATION_JSON;
+        double quality = 0;
+        for (MediaType entityType : ENTITY_TYPES) {
+            for (MediaType accepted : request.headers().accept()) {
+                if (accepted.includes(entityType) && accepted.getQualityValue() > quality) {
+                    format = entityType;
+                    quality = accepted.getQualityValue();
+                }
+            }
+        }
+        return FORMAT_SUFFIXES.getOrDefault(format, "");
+    }
+
+    private static String opaqueTag(String eTag) {
+        return eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+    }
+
+    private static Mono<ServerResponse> notModified(String eTag, Instant lastModified) {
+        ServerResponse.BodyBuilder response = ServerResponse.status(HttpStatus.NOT_MODIFIED).eTag(eTag).varyBy(VARY);
+        if (lastModified != null) {
+            response.lastModified(lastModified);
+        }
+        return response.build();
+    }
+}
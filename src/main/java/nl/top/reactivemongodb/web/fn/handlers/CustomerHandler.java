@@ -16,19 +16,43 @@ import static nl.top.reactivemongodb.web.fn.config.CustomerRouterConfig.CUSTOMER
 public class CustomerHandler implements ResourceHandler<CustomerHandler> {
 
     private final CustomerService customerService;
+    private final ConditionalResponses conditionalResponses;
 
     @Override
     public Mono<ServerResponse> getList(ServerRequest request) {
+        if (request.queryParam("ids").isPresent()) {
+            return customerService.getCustomersByIds(requestedIds(request))
+                    .flatMap(result -> ServerResponse.ok().bodyValue(result));
+        }
+        return conditionalResponses.list(request, customerService.getListVersion(), response -> customerService
+                .listCustomers(sort(request), request.queryParam("cursor").orElse(null), pageSize(request))
+                .flatMap(page -> pageResponse(request, page, response)));
+    }
+
+    @Override
+    public Mono<ServerResponse> streamList(ServerRequest request) {
         return ServerResponse
                 .ok()
-                .body(customerService.listCustomers(), CustomerDTO.class);
+                .contentType(streamingMediaType(request))
+                .body(customerService.listCustomers(sort(request)), CustomerDTO.class);
+    }
+
+    @Override
+    public Mono<ServerResponse> search(ServerRequest request) {
+        return customerService.searchCustomers(searchText(request), pageNumber(request), pageSize(request))
+                .flatMap(slice -> sliceResponse(request, slice));
+    }
+
+    @Override
+    public Mono<ServerResponse> changes(ServerRequest request) {
+        return customerService.getChangesSince(request.queryParam("since").orElse(null), pageSize(request))
+                .flatMap(changeSet -> ServerResponse.ok().bodyValue(changeSet));
     }
 
     @Override
     public Mono<ServerResponse> getById(ServerRequest request) {
-        return ServerResponse
-                .ok()
-                .body(customerService.getCustomerById(request.pathVariable("customerId")), CustomerDTO.class);
+        return customerService.getCustomerById(request.pathVariable("customerId"))
+                .flatMap(customer -> conditionalResponses.entity(request, customer, customer.getVersion(), customer.getLastModifiedDate()));
     }
 
     @Override
@@ -37,26 +61,37 @@ public class CustomerHandler implements ResourceHandler<CustomerHandler> {
                 .flatMap(customerService::saveCustomer)
                 .flatMap(savedCustomer -> ServerResponse.created(UriComponentsBuilder
                         .fromPath(CUSTOMER_PATH_ID)
-                        .build(savedCustomer.getId())).build());
+                        .build(savedCustomer.getId()))
+                        .eTag(conditionalResponses.eTag(savedCustomer.getVersion()))
+                        .build());
+    }
+
+    @Override
+    public Mono<ServerResponse> createBatch(ServerRequest request) {
+        //the body is decoded element by element, a JSON array or NDJSON both work
+        return customerService.saveCustomers(request.bodyToFlux(CustomerDTO.class))
+                .flatMap(result -> ServerResponse.ok().bodyValue(result));
     }
 
     @Override
     public Mono<ServerResponse> updateById(ServerRequest request) {
         return request.bodyToMono(CustomerDTO.class)
-                .flatMap(customerDTO -> customerService.updateCustomer(request.pathVariable("customerId"), customerDTO))
-                .flatMap(savedDTO -> ServerResponse.noContent().build());
+                .flatMap(customerDTO -> customerService.updateCustomer(request.pathVariable("customerId"), customerDTO,
+                        conditionalResponses.expectedVersions(request)))
+                .flatMap(savedDTO -> ServerResponse.noContent().eTag(conditionalResponses.eTag(savedDTO.getVersion())).build());
     }
 
     @Override
     public Mono<ServerResponse> patchById(ServerRequest request) {
         return request.bodyToMono(CustomerDTO.class)
-                .flatMap(customerDTO -> customerService.patchCustomer(request.pathVariable("customerId"), customerDTO))
-                .flatMap(savedDTO -> ServerResponse.noContent().build());
+                .flatMap(customerDTO -> customerService.patchCustomer(request.pathVariable("customerId"), customerDTO,
+                        conditionalResponses.expectedVersions(request)))
+                .flatMap(savedDTO -> ServerResponse.noContent().eTag(conditionalResponses.eTag(savedDTO.getVersion())).build());
     }
 
     @Override
     public Mono<ServerResponse> deleteById(ServerRequest request) {
-        return customerService.deleteCustomerById(request.pathVariable("customerId"))
+        return customerService.deleteCustomerById(request.pathVariable("customerId"), conditionalResponses.expectedVersions(request))
                 .then(ServerResponse.noContent().build());
     }
 }
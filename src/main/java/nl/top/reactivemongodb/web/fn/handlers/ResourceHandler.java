@@ -1,14 +1,134 @@
 package nl.top.reactivemongodb.web.fn.handlers;
 
+import nl.top.reactivemongodb.model.CursorPage;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.util.StringUtils;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ServerWebInputException;
 import reactor.core.publisher.Mono;
 
+import java.net.URI;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.List;
+
 public interface ResourceHandler<T> {
+    int DEFAULT_PAGE_SIZE = 50;
+    int MAX_PAGE_SIZE = 500;
+    String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    int MAX_MULTI_GET_IDS = 100;
+
     Mono<ServerResponse> getList(ServerRequest request);
+    Mono<ServerResponse> streamList(ServerRequest request);
+    Mono<ServerResponse> search(ServerRequest request);
+    Mono<ServerResponse> changes(ServerRequest request);
     Mono<ServerResponse> getById(ServerRequest request);
     Mono<ServerResponse> create(ServerRequest request);
+    Mono<ServerResponse> createBatch(ServerRequest request);
     Mono<ServerResponse> updateById(ServerRequest request);
     Mono<ServerResponse> patchById(ServerRequest request);
     Mono<ServerResponse> deleteById(ServerRequest request);
+
+    //only reached when the client accepted neither JSON nor a binary format, so anything but SSE is served as NDJSON
+    default MediaType streamingMediaType(ServerRequest request) {
+        return request.headers().accept().stream()
+                .anyMatch(mediaType -> mediaType.equalsTypeAndSubtype(MediaType.TEXT_EVENT_STREAM))
+                ? MediaType.TEXT_EVENT_STREAM : MediaType.APPLICATION_NDJSON;
+    }
+
+    default int pageSize(ServerRequest request) {
+        try {
+            int size = request.queryParam("size").map(Integer::parseInt).orElse(DEFAULT_PAGE_SIZE);
+            return Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        } catch (NumberFormatException e) {
+            throw new ServerWebInputException("Invalid page size " + request.queryParam("size").orElse(""));
+        }
+    }
+
+    //sort=price or sort=price,desc, the service rejects fields without an index
+    default Sort sort(ServerRequest request) {
+        List<String> values = request.queryParams().getOrDefault("sort", List.of());
+        if (values.isEmpty()) {
+            return Sort.unsorted();
+        }
+        String[] parts = values.get(0).split(",");
+        if (values.size() > 1 || parts.length > 2 || !StringUtils.hasText(parts[0])) {
+            throw new ServerWebInputException("Invalid sort " + values + ", expected sort=field or sort=field,desc");
+        }
+        Sort.Direction direction = parts.length == 1 ? Sort.Direction.ASC : Sort.Direction.fromOptionalString(parts[1].trim())
+                .orElseThrow(() -> new ServerWebInputException("Invalid sort direction " + parts[1]));
+        return Sort.by(direction, parts[0].trim());
+    }
+
+    //the next cursor goes out as a Link header (RFC 8288) so the body stays a plain JSON array
+    default Mono<ServerResponse> pageResponse(ServerRequest request, CursorPage<?> page) {
+        return pageResponse(request, page, ServerResponse.ok());
+    }
+
+    default Mono<ServerResponse> pageResponse(ServerRequest request, CursorPage<?> page, ServerResponse.BodyBuilder response) {
+        if (page.getNextCursor() != null) {
+            URI next = request.uriBuilder()
+                    .replaceQueryParam("cursor", page.getNextCursor())
+                    .build();
+            response.header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"")
+                    .header(NEXT_CURSOR_HEADER, page.getNextCursor());
+        }
+        return response.bodyValue(page.getContent());
+    }
+
+    default String searchText(ServerRequest request) {
+        return request.queryParam("q")
+                .filter(StringUtils::hasText)
+                .orElseThrow(() -> new ServerWebInputException("Query parameter q is required"));
+    }
+
+    default int pageNumber(ServerRequest request) {
+        try {
+            return Math.max(0, request.queryParam("page").map(Integer::parseInt).orElse(0));
+        } catch (NumberFormatException e) {
+            throw new ServerWebInputException("Invalid page " + request.queryParam("page").orElse(""));
+        }
+    }
+
+    //offset pages are used where the order is not on _id, like relevance, so a keyset cursor is not possible
+    default Mono<ServerResponse> sliceResponse(ServerRequest request, Slice<?> slice) {
+        ServerResponse.BodyBuilder response = ServerResponse.ok();
+        if (slice.hasNext()) {
+            URI next = request.uriBuilder()
+                    .replaceQueryParam("page", slice.getNumber() + 1)
+                    .build();
+            response.header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+        }
+        return response.bodyValue(slice.getContent());
+    }
+
+    //accepts ?ids=a,b,c as well as repeated ?ids=a&ids=b
+    default List<String> requestedIds(ServerRequest request) {
+        List<String> ids = request.queryParams().getOrDefault("ids", List.of()).stream()
+                .flatMap(value -> Arrays.stream(value.split(",")))
+                .map(String::trim)
+                .filter(StringUtils::hasText)
+                .distinct()
+                .toList();
+        if (ids.size() > MAX_MULTI_GET_IDS) {
+            throw new ServerWebInputException("At most " + MAX_MULTI_GET_IDS + " ids can be requested at once");
+        }
+        return ids;
+    }
+
+    //ISO-8601 local date-time, e.g. 2024-04-01T00:00:00
+    default LocalDateTime dateTimeParam(ServerRequest request, String name) {
+        return request.queryParam(name).map(value -> {
+            try {
+                return LocalDateTime.parse(value);
+            } catch (DateTimeParseException e) {
+                throw new ServerWebInputException("Invalid " + name + " " + value);
+            }
+        }).orElse(null);
+    }
 }
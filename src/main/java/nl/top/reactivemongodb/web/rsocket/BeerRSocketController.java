@@ -0,0 +1,54 @@
+package nl.top.reactivemongodb.web.rsocket;
+
+import lombok.RequiredArgsConstructor;
+import nl.top.reactivemongodb.domain.BeerStyle;
+import nl.top.reactivemongodb.model.BatchResult;
+import nl.top.reactivemongodb.model.BeerDTO;
+import nl.top.reactivemongodb.model.MultiGetResult;
+import nl.top.reactivemongodb.services.BeerService;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.stereotype.Controller;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+import static nl.top.reactivemongodb.web.fn.handlers.ResourceHandler.MAX_MULTI_GET_IDS;
+
+//the beer endpoints for internal callers, demand from the requester flows back to the Mongo cursor
+@Controller
+@RequiredArgsConstructor
+public class BeerRSocketController {
+    //ids that arrive within this window are looked up together
+    private static final Duration LOOKUP_WINDOW = Duration.ofMillis(10);
+
+    private final BeerService beerService;
+
+    @MessageMapping("beer.get")
+    public Mono<BeerDTO> getBeerById(String beerId) {
+        return beerService.getBeerById(beerId);
+    }
+
+    @MessageMapping("beer.list")
+    public Flux<BeerDTO> listBeers() {
+        return beerService.listBeers();
+    }
+
+    @MessageMapping("beer.list.style")
+    public Flux<BeerDTO> findByBeerStyle(BeerStyle beerStyle) {
+        return beerService.findByBeerStyle(beerStyle);
+    }
+
+    //a channel of ids, answered with one result per chunk of at most MAX_MULTI_GET_IDS ids
+    @MessageMapping("beer.lookup")
+    public Flux<MultiGetResult<BeerDTO>> getBeersByIds(Flux<String> beerIds) {
+        return beerIds.bufferTimeout(MAX_MULTI_GET_IDS, LOOKUP_WINDOW, true)
+                .concatMap(beerService::getBeersByIds);
+    }
+
+    //a channel of new beers, written in chunks like the batch endpoint
+    @MessageMapping("beer.save")
+    public Mono<BatchResult> saveBeers(Flux<BeerDTO> beerDTOs) {
+        return beerService.saveBeers(beerDTOs);
+    }
+}
@@ -0,0 +1,45 @@
+package nl.top.reactivemongodb.web.rsocket;
+
+import lombok.RequiredArgsConstructor;
+import nl.top.reactivemongodb.model.BatchResult;
+import nl.top.reactivemongodb.model.CustomerDTO;
+import nl.top.reactivemongodb.model.MultiGetResult;
+import nl.top.reactivemongodb.services.CustomerService;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.stereotype.Controller;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+import static nl.top.reactivemongodb.web.fn.handlers.ResourceHandler.MAX_MULTI_GET_IDS;
+
+@Controller
+@RequiredArgsConstructor
+public class CustomerRSocketController {
+    //ids that arrive within this window are looked up together
+    private static final Duration LOOKUP_WINDOW = Duration.ofMillis(10);
+
+    private final CustomerService customerService;
+
+    @MessageMapping("customer.get")
+    public Mono<CustomerDTO> getCustomerById(String customerId) {
+        return customerService.getCustomerById(customerId);
+    }
+
+    @MessageMapping("customer.list")
+    public Flux<CustomerDTO> listCustomers() {
+        return customerService.listCustomers();
+    }
+
+    @MessageMapping("customer.lookup")
+    public Flux<MultiGetResult<CustomerDTO>> getCustomersByIds(Flux<String> customerIds) {
+        return customerIds.bufferTimeout(MAX_MULTI_GET_IDS, LOOKUP_WINDOW, true)
+                .concatMap(customerService::getCustomersByIds);
+    }
+
+    @MessageMapping("customer.save")
+    public Mono<BatchResult> saveCustomers(Flux<CustomerDTO> customerDTOs) {
+        return customerService.saveCustomers(customerDTOs);
+    }
+}
@@ -0,0 +1,56 @@
+package nl.top.reactivemongodb.bootstrap;
+
+import org.bson.Document;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IndexInitializerTest {
+
+    @Test
+    @DisplayName("Test a nested collection scan in the winning plan is detected")
+    void detectsNestedCollectionScan() {
+        Document explain = new Document("queryPlanner", new Document("winningPlan",
+                new Document("stage", "LIMIT")
+                        .append("inputStage", new Document("stage", "COLLSCAN"))));
+
+        assertThat(IndexInitializer.usesCollectionScan(explain)).isTrue();
+    }
+
+    @Test
+    @DisplayName("Test an index scan is accepted")
+    void acceptsIndexScan() {
+        Document explain = new Document("queryPlanner", new Document("winningPlan",
+                new Document("stage", "FETCH")
+                        .append("inputStage", new Document("stage", "IXSCAN").append("indexName", "beerName")))
+                .append("rejectedPlans", List.of(new Document("stage", "COLLSCAN"))));
+
+        assertThat(IndexInitializer.usesCollectionScan(explain)).isFalse();
+    }
+
+    @Test
+    @DisplayName("Test a collection scan on one of the shards is detected")
+    void detectsCollectionScanOnShard() {
+        Document explain = new Document("queryPlanner", new Document("winningPlan",
+                new Document("stage", "SHARD_MERGE").append("shards", List.of(
+                        new Document("shardName", "a").append("winningPlan", new Document("stage", "IXSCAN")),
+                        new Document("shardName", "b").append("winningPlan", new Document("stage", "COLLSCAN"))))));
+
+        assertThat(IndexInitializer.usesCollectionScan(explain)).isTrue();
+    }
+
+    @Test
+    @DisplayName("Test a blocking sort in the winning plan is detected")
+    void detectsInMemorySort() {
+        Document explain = new Document("queryPlanner", new Document("winningPlan",
+                new Document("stage", "SORT")
+                        .append("inputStage", new Document("stage", "FETCH")
+                                .append("inputStage", new Document("stage", "IXSCAN").append("indexName", "upc")))));
+
+        assertThat(IndexInitializer.usesInMemorySort(explain)).isTrue();
+        assertThat(IndexInitializer.usesCollectionScan(explain)).isFalse();
+    }
+}
@@ -0,0 +1,123 @@
+package nl.top.reactivemongodb.changestream;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.top.reactivemongodb.domain.Beer;
+import nl.top.reactivemongodb.domain.BeerStyle;
+import nl.top.reactivemongodb.repositories.ResumeTokenRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static nl.top.reactivemongodb.changestream.CacheChangeStreamListener.BEER_COLLECTION;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class BeerChangeBroadcasterTest {
+
+    AtomicInteger listens = new AtomicInteger();
+    CacheChangeStreamListenerTest.StubChangeEventSource changeEventSource = new CacheChangeStreamListenerTest.StubChangeEventSource() {
+        @Override
+        public <T> Flux<ChangeEvent<T>> listen(String collectionName, Class<T> type, String resumeToken, boolean fullDocument) {
+            listens.incrementAndGet();
+            return super.listen(collectionName, type, resumeToken, fullDocument);
+        }
+    };
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    ResumeTokenRepository resumeTokenRepository = mock(ResumeTokenRepository.class);
+    CacheChangeStreamListener listener = new CacheChangeStreamListener(changeEventSource, resumeTokenRepository,
+            Caffeine.newBuilder().buildAsync(), Caffeine.newBuilder().buildAsync());
+    BeerChangeBroadcaster broadcaster = new BeerChangeBroadcaster(listener, meterRegistry, 2);
+
+    @BeforeEach
+    void setUp() {
+        when(resumeTokenRepository.findById(anyString())).thenReturn(Mono.empty());
+    }
+
+    private void emit(String id, BeerStyle beerStyle) {
+        changeEventSource.emit(BEER_COLLECTION, ChangeEvent.<Beer>builder()
+                .type(ChangeEvent.Type.UPSERT)
+                .id(id)
+                .document(Beer.builder().id(id).beerStyle(beerStyle).build())
+                .build());
+    }
+
+    @Test
+    @DisplayName("Test all clients share one change stream and only get the beers they asked for")
+    void clientsShareOneChangeStream() {
+        Flux<ChangeEvent<Beer>> ipas = broadcaster.subscribe(event -> event.getDocument().getBeerStyle() == BeerStyle.IPA,
+                BeerChangeBroadcaster.Overflow.DROP_OLDEST);
+        Flux<ChangeEvent<Beer>> all = broadcaster.subscribe(event -> true, BeerChangeBroadcaster.Overflow.DROP_OLDEST);
+
+        StepVerifier.create(Flux.merge(ipas.take(1), all.take(2)).map(ChangeEvent::getId))
+                .then(() -> {
+                    emit("1", BeerStyle.PALE_ALE);
+                    emit("2", BeerStyle.IPA);
+                })
+                .expectNext("1", "2", "2")
+                .verifyComplete();
+
+        assertThat(listens).hasValue(1);
+    }
+
+    @Test
+    @DisplayName("Test the feed reads the change stream of the cache listener")
+    void feedSharesCacheListenerStream() {
+        Flux<ChangeEvent<Beer>> all = broadcaster.subscribe(event -> true, BeerChangeBroadcaster.Overflow.DROP_OLDEST);
+
+        StepVerifier.create(all.take(1).map(ChangeEvent::getId))
+                .then(() -> {
+                    listener.start();
+                    emit("1", BeerStyle.IPA);
+                })
+                .expectNext("1")
+                .verifyComplete();
+        listener.stop();
+
+        //one for the beers, shared by the cache and the feed, and one for the customers
+        assertThat(listens).hasValue(2);
+    }
+
+    @Test
+    @DisplayName("Test a slow client drops its oldest events without holding back the others")
+    void slowClientDropsOldest() {
+        Flux<ChangeEvent<Beer>> slow = broadcaster.subscribe(event -> true, BeerChangeBroadcaster.Overflow.DROP_OLDEST);
+
+        StepVerifier.create(slow.map(ChangeEvent::getId), 0)
+                .then(() -> {
+                    for (int i = 1; i <= 5; i++) {
+                        emit(String.valueOf(i), BeerStyle.IPA);
+                    }
+                })
+                .thenRequest(2)
+                .expectNext("4", "5")
+                .thenCancel()
+                .verify();
+
+        assertThat(meterRegistry.get("beer.feed.dropped").counter().count()).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("Test a slow client with the latest policy only gets the newest event")
+    void slowClientGetsLatest() {
+        Flux<ChangeEvent<Beer>> slow = broadcaster.subscribe(event -> true, BeerChangeBroadcaster.Overflow.LATEST);
+
+        StepVerifier.create(slow.map(ChangeEvent::getId), 0)
+                .then(() -> {
+                    emit("1", BeerStyle.IPA);
+                    emit("2", BeerStyle.IPA);
+                    emit("3", BeerStyle.IPA);
+                })
+                .thenRequest(1)
+                .expectNext("3")
+                .thenCancel()
+                .verify();
+    }
+}
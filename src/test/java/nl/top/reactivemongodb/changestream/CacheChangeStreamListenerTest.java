@@ -0,0 +1,165 @@
+package nl.top.reactivemongodb.changestream;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import nl.top.reactivemongodb.domain.Beer;
+import nl.top.reactivemongodb.domain.Customer;
+import nl.top.reactivemongodb.domain.ResumeToken;
+import nl.top.reactivemongodb.repositories.ResumeTokenRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CacheChangeStreamListenerTest {
+
+    //stand-in for the Mongo change stream, one sink per collection
+    static class StubChangeEventSource implements ChangeEventSource {
+        static final RuntimeException HISTORY_LOST = new IllegalStateException("history lost");
+
+        final Map<String, Sinks.Many<ChangeEvent<?>>> sinks = new ConcurrentHashMap<>();
+        final Map<String, String> requestedTokens = new ConcurrentHashMap<>();
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> Flux<ChangeEvent<T>> listen(String collectionName, Class<T> type, String resumeToken, boolean fullDocument) {
+            if (resumeToken != null) {
+                requestedTokens.put(collectionName, resumeToken);
+            }
+            return sink(collectionName).asFlux().map(event -> (ChangeEvent<T>) event);
+        }
+
+        Sinks.Many<ChangeEvent<?>> sink(String collectionName) {
+            return sinks.computeIfAbsent(collectionName, name -> Sinks.many().multicast().directBestEffort());
+        }
+
+        void emit(String collectionName, ChangeEvent<?> event) {
+            sink(collectionName).tryEmitNext(event);
+        }
+
+        //ends the current stream, listening again opens a new one
+        void complete(String collectionName) {
+            sinks.remove(collectionName).tryEmitComplete();
+        }
+
+        void fail(String collectionName, Throwable error) {
+            sinks.remove(collectionName).tryEmitError(error);
+        }
+
+        @Override
+        public boolean isHistoryLost(Throwable error) {
+            return error == HISTORY_LOST;
+        }
+    }
+
+    StubChangeEventSource changeEventSource;
+    ResumeTokenRepository resumeTokenRepository;
+    AsyncCache<String, Beer> beerCache;
+    AsyncCache<String, Customer> customerCache;
+    CacheChangeStreamListener listener;
+
+    @BeforeEach
+    void setUp() {
+        changeEventSource = new StubChangeEventSource();
+        resumeTokenRepository = mock(ResumeTokenRepository.class);
+        when(resumeTokenRepository.findById(anyString()))
+                .thenReturn(Mono.just(ResumeToken.builder().id("beer").token("{\"_data\": \"stored\"}").build()));
+        when(resumeTokenRepository.save(any(ResumeToken.class)))
+                .thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+        when(resumeTokenRepository.deleteById(anyString())).thenReturn(Mono.empty());
+        beerCache = Caffeine.newBuilder().buildAsync();
+        customerCache = Caffeine.newBuilder().buildAsync();
+        listener = new CacheChangeStreamListener(changeEventSource, resumeTokenRepository, beerCache, customerCache);
+        listener.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        listener.stop();
+    }
+
+    @Test
+    @DisplayName("Test a change from another instance evicts the cached beer")
+    void upsertEvictsCachedBeer() {
+        beerCache.put("1", CompletableFuture.completedFuture(Beer.builder().id("1").beerName("Old").build()));
+        beerCache.put("2", CompletableFuture.completedFuture(Beer.builder().id("2").beerName("Other").build()));
+
+        changeEventSource.emit(CacheChangeStreamListener.BEER_COLLECTION, ChangeEvent.<Beer>builder()
+                .type(ChangeEvent.Type.UPSERT).id("1").resumeToken("{\"_data\": \"1\"}").build());
+
+        await().until(() -> beerCache.getIfPresent("1") == null);
+        assertThat(beerCache.getIfPresent("2")).isNotNull();
+    }
+
+    @Test
+    @DisplayName("Test a dropped collection clears the whole cache")
+    void invalidateClearsCache() {
+        customerCache.put("1", CompletableFuture.completedFuture(Customer.builder().id("1").build()));
+
+        changeEventSource.emit(CacheChangeStreamListener.CUSTOMER_COLLECTION, ChangeEvent.<Customer>builder()
+                .type(ChangeEvent.Type.INVALIDATE).build());
+
+        await().until(() -> customerCache.synchronous().estimatedSize() == 0);
+    }
+
+    @Test
+    @DisplayName("Test the stream resumes from the stored token and stores the latest one")
+    void resumeTokenIsKept() {
+        assertThat(changeEventSource.requestedTokens).containsEntry("beer", "{\"_data\": \"stored\"}");
+
+        changeEventSource.emit(CacheChangeStreamListener.BEER_COLLECTION, ChangeEvent.<Beer>builder()
+                .type(ChangeEvent.Type.DELETE).id("1").resumeToken("{\"_data\": \"latest\"}").build());
+
+        ResumeToken latest = ResumeToken.builder().id("beer").token("{\"_data\": \"latest\"}").build();
+        await().untilAsserted(() -> {
+            listener.saveTokens().blockLast();
+            verify(resumeTokenRepository).save(latest);
+        });
+    }
+
+    @Test
+    @DisplayName("Test a stream that ends after an invalidate is reopened after the invalidate event")
+    void invalidatedStreamIsReopened() {
+        changeEventSource.emit(CacheChangeStreamListener.CUSTOMER_COLLECTION, ChangeEvent.<Customer>builder()
+                .type(ChangeEvent.Type.INVALIDATE).resumeToken("{\"_data\": \"invalidate\"}").build());
+        changeEventSource.complete(CacheChangeStreamListener.CUSTOMER_COLLECTION);
+
+        await().untilAsserted(() -> assertThat(changeEventSource.requestedTokens)
+                .containsEntry("customer", "{\"_data\": \"invalidate\"}"));
+    }
+
+    @Test
+    @DisplayName("Test a token whose history is gone is dropped and the cache cleared")
+    void lostHistoryDropsToken() {
+        beerCache.put("1", CompletableFuture.completedFuture(Beer.builder().id("1").build()));
+
+        changeEventSource.fail(CacheChangeStreamListener.BEER_COLLECTION, StubChangeEventSource.HISTORY_LOST);
+
+        await().untilAsserted(() -> verify(resumeTokenRepository).deleteById("beer"));
+        assertThat(beerCache.getIfPresent("1")).isNull();
+    }
+
+    @Test
+    @DisplayName("Test a stream that keeps ending backs off and starts over after it delivered events")
+    void reopenBacksOff() {
+        assertThat(CacheChangeStreamListener.reopenDelays(Flux.just(0L, 0L, 0L, 3L, 0L)).collectList().block())
+                .containsExactly(Duration.ofSeconds(1), Duration.ofSeconds(2), Duration.ofSeconds(4),
+                        Duration.ofSeconds(1), Duration.ofSeconds(2));
+    }
+}
@@ -0,0 +1,79 @@
+package nl.top.reactivemongodb.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.top.reactivemongodb.model.BeerDTO;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.HttpMessageWriter;
+import org.springframework.http.codec.ServerCodecConfigurer;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MeteredEncoderTest {
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    MeteredEncoder encoder = new MeteredEncoder(new Jackson2JsonEncoder(new ObjectMapper()), "json", meterRegistry);
+    List<BeerDTO> beers = List.of(BeerDTO.builder().beerName("Space Dust").build(), BeerDTO.builder().beerName("Crank").build());
+
+    private String encode(Flux<DataBuffer> buffers) {
+        return String.join("", buffers.map(buffer -> buffer.toString(StandardCharsets.UTF_8)).collectList().block());
+    }
+
+    @Test
+    @DisplayName("Test a list page is measured once and tagged with its element type")
+    void listPageIsTaggedWithElementType() {
+        //the runtime class only, the way bodyValue passes a list
+        encode(encoder.encode(Mono.just(beers), DefaultDataBufferFactory.sharedInstance, ResolvableType.forInstance(beers),
+                MediaType.APPLICATION_JSON, Map.of()));
+
+        assertThat(meterRegistry.get("http.server.encode").tag("format", "json").tag("type", "BeerDTO[]").timer().count())
+                .isEqualTo(1);
+        assertThat(meterRegistry.get("http.server.encode.size").tag("type", "BeerDTO[]").summary().totalAmount())
+                .isPositive();
+    }
+
+    @Test
+    @DisplayName("Test a Flux is written by the delegate element by element and not measured")
+    void fluxIsLeftToTheDelegate() {
+        String json = encode(encoder.encode(Flux.fromIterable(beers), DefaultDataBufferFactory.sharedInstance,
+                ResolvableType.forClass(BeerDTO.class), MediaType.APPLICATION_JSON, Map.of()));
+
+        assertThat(json).startsWith("[").contains("Space Dust", "Crank").endsWith("]");
+        assertThat(meterRegistry.find("http.server.encode").timer()).isNull();
+    }
+
+    @Test
+    @DisplayName("Test the data of a server-sent event is not measured")
+    void singleValueEncodingIsNotMeasured() {
+        encoder.encodeValue(beers.get(0), DefaultDataBufferFactory.sharedInstance, ResolvableType.forClass(BeerDTO.class),
+                MediaType.APPLICATION_JSON, Map.of());
+
+        assertThat(meterRegistry.find("http.server.encode").timer()).isNull();
+    }
+
+    @Test
+    @DisplayName("Test the codec customizer adds writers for CBOR and Smile")
+    void binaryCodecsAreRegistered() {
+        ServerCodecConfigurer configurer = ServerCodecConfigurer.create();
+        new CodecConfig().binaryCodecs(new ObjectMapper(), new Jackson2ObjectMapperBuilder(), meterRegistry)
+                .customize(configurer);
+
+        List<HttpMessageWriter<?>> writers = configurer.getWriters();
+        ResolvableType beerType = ResolvableType.forClass(BeerDTO.class);
+        assertThat(writers).anyMatch(writer -> writer.canWrite(beerType, MediaType.APPLICATION_CBOR));
+        assertThat(writers).anyMatch(writer -> writer.canWrite(beerType, MediaType.parseMediaType("application/x-jackson-smile")));
+    }
+}
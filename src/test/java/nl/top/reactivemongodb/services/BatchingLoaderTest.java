@@ -0,0 +1,99 @@
+package nl.top.reactivemongodb.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BatchingLoaderTest {
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    List<Collection<String>> batches = new CopyOnWriteArrayList<>();
+    BatchingLoader<String, String> loader = new BatchingLoader<>("test", this::findAllById, value -> value,
+            4, Duration.ofMillis(50), meterRegistry);
+
+    //pretends every id except "missing" exists
+    private Flux<String> findAllById(Collection<String> ids) {
+        batches.add(List.copyOf(ids));
+        return Flux.fromIterable(ids).filter(id -> !id.equals("missing"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        loader.close();
+    }
+
+    @Test
+    @DisplayName("Test lookups within one window are fetched with one query")
+    void lookupsWithinWindowShareOneQuery() {
+        StepVerifier.create(Mono.zip(loader.load("1"), loader.load("2"), loader.load("3")))
+                .assertNext(found -> assertThat(List.of(found.getT1(), found.getT2(), found.getT3()))
+                        .containsExactly("1", "2", "3"))
+                .verifyComplete();
+
+        assertThat(batches).hasSize(1);
+        assertThat(meterRegistry.get("batch.loader.fill.ratio").summary().mean()).isEqualTo(0.75);
+    }
+
+    @Test
+    @DisplayName("Test a full batch is sent without waiting for the window")
+    void fullBatchIsSentImmediately() {
+        StepVerifier.create(Flux.range(1, 5).flatMap(id -> loader.load(String.valueOf(id))).collectList())
+                .assertNext(found -> assertThat(found).hasSize(5))
+                .verifyComplete();
+
+        assertThat(batches).hasSize(2);
+        assertThat(batches.get(0)).hasSize(4);
+    }
+
+    @Test
+    @DisplayName("Test closing the loader answers the lookups still waiting for their window")
+    void closeDispatchesWaitingLookups() {
+        BatchingLoader<String, String> slowLoader = new BatchingLoader<>("slow", this::findAllById, value -> value,
+                4, Duration.ofHours(1), meterRegistry);
+        Mono<String> waiting = slowLoader.load("1").cache();
+        waiting.subscribe();
+
+        slowLoader.close();
+
+        StepVerifier.create(waiting)
+                .expectNext("1")
+                .verifyComplete();
+        StepVerifier.create(slowLoader.load("2"))
+                .expectError(IllegalStateException.class)
+                .verify();
+    }
+
+    @Test
+    @DisplayName("Test a missing id completes empty")
+    void missingIdCompletesEmpty() {
+        StepVerifier.create(loader.load("missing"))
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Test lookups from many threads at once are all answered")
+    void concurrentLookups() {
+        StepVerifier.create(Flux.range(1, 200)
+                        .parallel(8)
+                        .runOn(Schedulers.parallel())
+                        .flatMap(id -> loader.load(String.valueOf(id)))
+                        .sequential()
+                        .collectList())
+                .assertNext(found -> assertThat(found).hasSize(200).doesNotHaveDuplicates())
+                .verifyComplete();
+
+        assertThat(batches).allSatisfy(batch -> assertThat(batch).hasSizeLessThanOrEqualTo(4));
+    }
+}
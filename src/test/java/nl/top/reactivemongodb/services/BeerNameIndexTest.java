@@ -0,0 +1,81 @@
+package nl.top.reactivemongodb.services;
+
+import nl.top.reactivemongodb.domain.Beer;
+import nl.top.reactivemongodb.model.BeerSuggestionDTO;
+import nl.top.reactivemongodb.repositories.BeerRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class BeerNameIndexTest {
+
+    BeerRepository beerRepository = mock(BeerRepository.class);
+    BeerNameIndex beerNameIndex = new BeerNameIndex(beerRepository);
+
+    private static Beer beer(String id, String beerName) {
+        return Beer.builder().id(id).beerName(beerName).build();
+    }
+
+    @Test
+    @DisplayName("Test completions ignore case and accents and are alphabetical")
+    void completesPrefix() {
+        beerNameIndex.put(beer("1", "Sunshine City"));
+        beerNameIndex.put(beer("2", "Galaxy Cat"));
+        beerNameIndex.put(beer("3", "S\u00fcper Sour"));
+        beerNameIndex.put(beer("4", "sun dog"));
+
+        assertThat(beerNameIndex.complete("SU", 10))
+                .extracting(BeerSuggestionDTO::getBeerName)
+                .containsExactly("sun dog", "Sunshine City", "S\u00fcper Sour");
+        assertThat(beerNameIndex.complete("su", 1))
+                .containsExactly(new BeerSuggestionDTO("4", "sun dog"));
+        assertThat(beerNameIndex.complete(" ", 10)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Test a renamed or deleted beer no longer completes its old name")
+    void followsWrites() {
+        beerNameIndex.put(beer("1", "Galaxy Cat"));
+        beerNameIndex.put(beer("1", "Crank"));
+        beerNameIndex.put(beer("2", "Galaxy Dog"));
+        beerNameIndex.remove("2");
+
+        assertThat(beerNameIndex.complete("galaxy", 10)).isEmpty();
+        assertThat(beerNameIndex.complete("cr", 10)).containsExactly(new BeerSuggestionDTO("1", "Crank"));
+        assertThat(beerNameIndex.size()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Test a rebuild replaces the index with the beers in the repository")
+    void rebuild() {
+        beerNameIndex.put(beer("1", "Deleted Elsewhere"));
+        when(beerRepository.findAll()).thenReturn(Flux.just(beer("2", "Crank"), beer("3", "Crankier")));
+
+        beerNameIndex.rebuild().block();
+
+        assertThat(beerNameIndex.complete("d", 10)).isEmpty();
+        assertThat(beerNameIndex.complete("crank", 10)).extracting(BeerSuggestionDTO::getId).containsExactly("2", "3");
+    }
+
+    @Test
+    @DisplayName("Test writes made while a rebuild runs are kept when the new index is swapped in")
+    void writesDuringRebuildAreKept() {
+        Sinks.Many<Beer> beers = Sinks.many().unicast().onBackpressureBuffer();
+        when(beerRepository.findAll()).thenReturn(beers.asFlux());
+        beerNameIndex.rebuild().subscribe();
+
+        beers.tryEmitNext(beer("1", "Galaxy Cat"));
+        beerNameIndex.put(beer("2", "Crank"));
+        beerNameIndex.remove("1");
+        beers.tryEmitNext(beer("3", "Galaxy Dog"));
+        beers.tryEmitComplete();
+
+        assertThat(beerNameIndex.complete("galaxy", 10)).containsExactly(new BeerSuggestionDTO("3", "Galaxy Dog"));
+        assertThat(beerNameIndex.complete("crank", 10)).containsExactly(new BeerSuggestionDTO("2", "Crank"));
+    }
+}
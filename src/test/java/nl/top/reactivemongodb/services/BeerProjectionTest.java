@@ -0,0 +1,41 @@
+package nl.top.reactivemongodb.services;
+
+import nl.top.reactivemongodb.domain.Beer;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.web.server.ServerWebInputException;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
+
+class BeerProjectionTest {
+
+    @Test
+    @DisplayName("Test only the requested fields are read and returned, in the requested order")
+    void projectsRequestedFields() {
+        BeerProjection projection = BeerProjection.of(List.of("price,beerName", "price"));
+        Beer beer = Beer.builder().id("1").beerName("Crank").price(new BigDecimal("9.99")).upc("123").build();
+
+        Query query = projection.applyTo(new Query());
+
+        assertThat(query.getFieldsObject()).containsOnlyKeys("price", "beerName");
+        assertThat(projection.apply(beer)).containsExactly(
+                entry("price", new BigDecimal("9.99")),
+                entry("beerName", "Crank"));
+    }
+
+    @Test
+    @DisplayName("Test an unknown or empty field list is rejected")
+    void rejectsUnknownFields() {
+        assertThatThrownBy(() -> BeerProjection.of(List.of("id,colour")))
+                .isInstanceOf(ServerWebInputException.class)
+                .hasMessageContaining("colour");
+        assertThatThrownBy(() -> BeerProjection.of(List.of("")))
+                .isInstanceOf(ServerWebInputException.class);
+    }
+}
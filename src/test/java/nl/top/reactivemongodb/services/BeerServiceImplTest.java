@@ -1,9 +1,16 @@
 package nl.top.reactivemongodb.services;
 
+import com.github.benmanes.caffeine.cache.AsyncCache;
 import nl.top.reactivemongodb.domain.Beer;
 import nl.top.reactivemongodb.domain.BeerStyle;
+import nl.top.reactivemongodb.domain.InventorySummary;
 import nl.top.reactivemongodb.mapper.BeerMapper;
 import nl.top.reactivemongodb.model.BeerDTO;
+import nl.top.reactivemongodb.model.BeerStyleStatsDTO;
+import nl.top.reactivemongodb.model.ChangeSet;
+import nl.top.reactivemongodb.model.InventorySummaryDTO;
+import nl.top.reactivemongodb.model.StockLevelDTO;
+import org.bson.types.ObjectId;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -11,12 +18,17 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 import java.math.BigDecimal;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -33,6 +45,12 @@ class BeerServiceImplTest {
 
     @Autowired
     BeerMapper beerMapper;
+
+    @Autowired
+    AsyncCache<String, Beer> beerCache;
+
+    @Autowired
+    InventorySummaryService inventorySummaryService;
     BeerDTO beerDTO;
 
     @BeforeEach
@@ -262,4 +280,243 @@ class BeerServiceImplTest {
 
         assertThat(updatedBeer.getBeerName()).isEqualTo(newName);
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Test concurrent patches of different fields are both kept")
+    void concurrentPatchesKeepBothFields() {
+        BeerDTO savedBeer = getSavedBeerDTO();
+        //the name is required on every patch, both send it unchanged and change one other field each
+        BeerDTO pricePatch = BeerDTO.builder().beerName(savedBeer.getBeerName()).price(new BigDecimal("3.50")).build();
+        BeerDTO quantityPatch = BeerDTO.builder().beerName(savedBeer.getBeerName()).quantityOnHand(99).build();
+
+        Mono.when(beerService.patchBeerById(savedBeer.getId(), pricePatch).subscribeOn(Schedulers.parallel()),
+                beerService.patchBeerById(savedBeer.getId(), quantityPatch).subscribeOn(Schedulers.parallel())).block();
+
+        BeerDTO patchedBeer = beerService.getBeerById(savedBeer.getId()).block();
+        assertThat(patchedBeer.getPrice()).isEqualByComparingTo("3.50");
+        assertThat(patchedBeer.getQuantityOnHand()).isEqualTo(99);
+        assertThat(patchedBeer.getBeerName()).isEqualTo(savedBeer.getBeerName());
+        assertThat(patchedBeer.getUpc()).isEqualTo(savedBeer.getUpc());
+    }
+
+    @Test
+    @DisplayName("Test repeated get beer by id is served from the cache")
+    void getBeerByIdUsesCache() {
+        BeerDTO savedBeer = getSavedBeerDTO();
+        long hitsBefore = beerCache.synchronous().stats().hitCount();
+
+        beerService.getBeerById(savedBeer.getId()).block();
+        beerService.getBeerById(savedBeer.getId()).block();
+
+        assertThat(beerCache.synchronous().stats().hitCount()).isGreaterThanOrEqualTo(hitsBefore + 2);
+    }
+
+    @Test
+    @DisplayName("Test get beer by id reads its own update and delete through the cache")
+    void getBeerByIdAfterWrites() {
+        BeerDTO savedBeer = getSavedBeerDTO();
+        beerService.getBeerById(savedBeer.getId()).block();
+
+        savedBeer.setBeerName("Cached Name");
+        beerService.updateBeer(savedBeer.getId(), savedBeer).block();
+        assertThat(beerService.getBeerById(savedBeer.getId()).block().getBeerName()).isEqualTo("Cached Name");
+
+        beerService.deleteBeerById(savedBeer.getId()).block();
+        assertThatThrownBy(() -> beerService.getBeerById(savedBeer.getId()).block())
+                .isInstanceOf(ResponseStatusException.class);
+    }
+
+    @Test
+    @DisplayName("Test stats per beer style only include beers modified in the range")
+    void getBeerStyleStats() {
+        BeerDTO first = getSavedBeerDTO();
+        BeerDTO second = getSavedBeerDTO();
+        //the window is taken from the saved beers, Mongo keeps milliseconds and the end of the range is exclusive
+        LocalDateTime from = first.getLastModifiedDate().truncatedTo(ChronoUnit.MILLIS);
+        LocalDateTime to = second.getLastModifiedDate().truncatedTo(ChronoUnit.MILLIS).plus(1, ChronoUnit.MILLIS);
+
+        List<BeerStyleStatsDTO> stats = beerService.getBeerStyleStats(from, to).collectList().block();
+
+        assertThat(stats).isNotNull();
+        BeerStyleStatsDTO ipa = stats.stream()
+                .filter(styleStats -> styleStats.getBeerStyle() == BeerStyle.IPA)
+                .findFirst().orElseThrow();
+        assertThat(ipa.getCount()).isEqualTo(2);
+        assertThat(ipa.getMinPrice()).isEqualByComparingTo(BigDecimal.TEN);
+        assertThat(ipa.getAvgPrice()).isEqualByComparingTo(BigDecimal.TEN);
+        assertThat(ipa.getTotalQuantityOnHand()).isEqualTo(24);
+        assertThat(beerService.getBeerStyleStats(null, from.minusYears(100)).collectList().block()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Test the inventory summary follows saves, patches and deletes")
+    void inventorySummaryFollowsBeerWrites() {
+        inventorySummaryService.reconcile().block();
+        InventorySummaryDTO before = getInventorySummary();
+
+        BeerDTO savedBeer = getSavedBeerDTO();
+        InventorySummaryDTO afterSave = getInventorySummary();
+        assertThat(afterSave.getBeerCount()).isEqualTo(before.getBeerCount() + 1);
+        assertThat(afterSave.getTotalQuantityOnHand()).isEqualTo(before.getTotalQuantityOnHand() + 12);
+        assertThat(afterSave.getTotalStockValue()).isEqualByComparingTo(before.getTotalStockValue().add(new BigDecimal("120")));
+
+        beerService.patchBeerById(savedBeer.getId(), BeerDTO.builder().beerName("Space Dust").quantityOnHand(2).build()).block();
+        InventorySummaryDTO afterPatch = getInventorySummary();
+        assertThat(afterPatch.getBeerCount()).isEqualTo(before.getBeerCount() + 1);
+        assertThat(afterPatch.getTotalQuantityOnHand()).isEqualTo(before.getTotalQuantityOnHand() + 2);
+        assertThat(afterPatch.getTotalStockValue()).isEqualByComparingTo(before.getTotalStockValue().add(new BigDecimal("20")));
+
+        beerService.deleteBeerById(savedBeer.getId()).block();
+        InventorySummaryDTO afterDelete = getInventorySummary();
+        assertThat(afterDelete.getBeerCount()).isEqualTo(before.getBeerCount());
+        assertThat(afterDelete.getTotalQuantityOnHand()).isEqualTo(before.getTotalQuantityOnHand());
+        assertThat(inventorySummaryService.reconcile().block()).isZero();
+    }
+
+    private InventorySummaryDTO getInventorySummary() {
+        return inventorySummaryService.getInventorySummary()
+                .filter(summary -> InventorySummary.ALL.equals(summary.getScope()))
+                .blockFirst();
+    }
+
+    @Test
+    @DisplayName("Test concurrent stock decrements never take more than is on hand")
+    void concurrentDecrementsDoNotOversell() {
+        BeerDTO savedBeer = getSavedBeerDTO();
+        AtomicInteger conflicts = new AtomicInteger();
+
+        Flux.range(0, 20)
+                .flatMap(i -> beerService.decrementStock(savedBeer.getId(), 1)
+                        .onErrorResume(ResponseStatusException.class, e -> {
+                            assertThat(e.getStatusCode()).isEqualTo(HttpStatus.CONFLICT);
+                            conflicts.incrementAndGet();
+                            return Mono.empty();
+                        }))
+                .blockLast();
+
+        assertThat(conflicts).hasValue(8);
+        assertThat(beerService.getBeerById(savedBeer.getId()).block().getQuantityOnHand()).isZero();
+    }
+
+    @Test
+    @DisplayName("Test reserving stock moves it from on hand to reserved")
+    void reserveStock() {
+        BeerDTO savedBeer = getSavedBeerDTO();
+
+        StockLevelDTO stockLevel = beerService.reserveStock(savedBeer.getId(), 5).block();
+
+        assertThat(stockLevel.getQuantityOnHand()).isEqualTo(7);
+        assertThat(stockLevel.getQuantityReserved()).isEqualTo(5);
+        assertThat(beerService.incrementStock(savedBeer.getId(), 3).block().getQuantityOnHand()).isEqualTo(10);
+        assertThatThrownBy(() -> beerService.reserveStock(savedBeer.getId(), 11).block())
+                .isInstanceOf(ResponseStatusException.class)
+                .extracting(e -> ((ResponseStatusException) e).getStatusCode())
+                .isEqualTo(HttpStatus.CONFLICT);
+        assertThatThrownBy(() -> beerService.incrementStock("unknown", 1).block())
+                .isInstanceOf(ResponseStatusException.class)
+                .extracting(e -> ((ResponseStatusException) e).getStatusCode())
+                .isEqualTo(HttpStatus.NOT_FOUND);
+    }
+
+    @Test
+    @DisplayName("Test concurrent updates expecting the same version, only one of them is written")
+    void concurrentConditionalUpdates() {
+        BeerDTO savedBeer = getSavedBeerDTO();
+        AtomicInteger preconditionFailures = new AtomicInteger();
+
+        Flux.range(0, 10)
+                .flatMap(i -> beerService.patchBeerById(savedBeer.getId(), BeerDTO.builder().beerName("Edit " + i).build(),
+                                List.of(savedBeer.getVersion()))
+                        .onErrorResume(ResponseStatusException.class, e -> {
+                            assertThat(e.getStatusCode()).isEqualTo(HttpStatus.PRECONDITION_FAILED);
+                            preconditionFailures.incrementAndGet();
+                            return Mono.empty();
+                        }))
+                .blockLast();
+
+        assertThat(preconditionFailures).hasValue(9);
+        assertThat(beerService.getBeerById(savedBeer.getId()).block().getVersion()).isEqualTo(savedBeer.getVersion() + 1);
+    }
+
+    @Test
+    @DisplayName("Test changes since a watermark return the new and the deleted beers only")
+    void changesSince() {
+        ChangeSet<BeerDTO> changeSet = beerService.getChangesSince(null, 500).block();
+        while (changeSet.isHasMore()) {
+            changeSet = beerService.getChangesSince(changeSet.getWatermark(), 500).block();
+        }
+        String watermark = changeSet.getWatermark();
+        BeerDTO savedBeer = getSavedBeerDTO();
+        BeerDTO deletedBeer = getSavedBeerDTO();
+        beerService.deleteBeerById(deletedBeer.getId()).block();
+
+        //changes are held back for the settle time
+        await().atMost(Duration.ofSeconds(15)).untilAsserted(() -> {
+            ChangeSet<BeerDTO> changes = beerService.getChangesSince(watermark, 500).block();
+            assertThat(changes.getChanged()).extracting(BeerDTO::getId)
+                    .contains(savedBeer.getId())
+                    .doesNotContain(deletedBeer.getId());
+            assertThat(changes.getDeleted()).contains(deletedBeer.getId());
+        });
+    }
+
+    @Test
+    @DisplayName("Test a delete that fails on its version is not reported as deleted")
+    void failedDeleteIsNotInChanges() {
+        BeerDTO savedBeer = getSavedBeerDTO();
+        String watermark = new ChangeFeed.Watermark(LocalDateTime.now().minusMinutes(1), null).encode();
+
+        assertThatThrownBy(() -> beerService.deleteBeerById(savedBeer.getId(), List.of(savedBeer.getVersion() + 1)).block())
+                .isInstanceOf(ResponseStatusException.class);
+
+        await().atMost(Duration.ofSeconds(15)).untilAsserted(() -> {
+            ChangeSet<BeerDTO> changes = beerService.getChangesSince(watermark, 500).block();
+            assertThat(changes.getDeleted()).doesNotContain(savedBeer.getId());
+        });
+    }
+
+    @Test
+    @DisplayName("Test a new beer or an unknown id is inserted whatever version it carries")
+    void saveWithVersionOfUnstoredBeer() {
+        BeerDTO withoutId = getTestBeerDTO();
+        withoutId.setVersion(3L);
+        BeerDTO unknownId = getTestBeerDTO();
+        unknownId.setId(new ObjectId().toHexString());
+        unknownId.setVersion(3L);
+
+        assertThat(beerService.saveBeer(withoutId).block().getId()).isNotNull();
+        assertThat(beerService.saveBeer(unknownId).block().getId()).isEqualTo(unknownId.getId());
+    }
+
+    @Test
+    @DisplayName("Test a beer saved again under a deleted id continues after the version it had")
+    void recreatedBeerKeepsCountingVersions() {
+        BeerDTO savedBeer = getSavedBeerDTO();
+        beerService.patchBeerById(savedBeer.getId(), BeerDTO.builder().beerName("Patched Name").build()).block();
+        beerService.deleteBeerById(savedBeer.getId()).block();
+        BeerDTO recreated = getTestBeerDTO();
+        recreated.setId(savedBeer.getId());
+        BeerDTO bulkRecreated = getTestBeerDTO();
+        bulkRecreated.setId(savedBeer.getId());
+
+        assertThat(beerService.saveBeer(recreated).block().getVersion()).isEqualTo(savedBeer.getVersion() + 2);
+        beerService.deleteBeerById(savedBeer.getId()).block();
+        beerService.saveBeers(Flux.just(bulkRecreated)).block();
+        assertThat(beerService.getBeerById(savedBeer.getId()).block().getVersion()).isEqualTo(savedBeer.getVersion() + 3);
+    }
+
+    @Test
+    @DisplayName("Test the reserved quantity in a request body is ignored and kept on replace")
+    void reservedQuantityIsReadOnly() {
+        BeerDTO beer = getTestBeerDTO();
+        beer.setQuantityReserved(100);
+        BeerDTO savedBeer = beerService.saveBeer(beer).block();
+        assertThat(savedBeer.getQuantityReserved()).isNull();
+
+        beerService.reserveStock(savedBeer.getId(), 5).block();
+        savedBeer.setQuantityReserved(0);
+        savedBeer.setVersion(null);
+
+        assertThat(beerService.saveBeer(savedBeer).block().getQuantityReserved()).isEqualTo(5);
+    }
+}
@@ -0,0 +1,31 @@
+package nl.top.reactivemongodb.services;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.server.ServerWebInputException;
+
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ChangeFeedTest {
+
+    @Test
+    @DisplayName("Test a watermark survives the round trip with and without an id")
+    void watermarkRoundTrip() {
+        LocalDateTime lastModifiedDate = LocalDateTime.of(2024, 4, 11, 10, 15, 30, 250_000_000);
+        ChangeFeed.Watermark withId = new ChangeFeed.Watermark(lastModifiedDate, "661a0b6e2f8fb814b56fa181");
+        ChangeFeed.Watermark withoutId = new ChangeFeed.Watermark(lastModifiedDate, null);
+
+        assertThat(ChangeFeed.Watermark.decode(withId.encode())).isEqualTo(withId);
+        assertThat(ChangeFeed.Watermark.decode(withoutId.encode())).isEqualTo(withoutId);
+    }
+
+    @Test
+    @DisplayName("Test an invalid watermark is rejected")
+    void invalidWatermark() {
+        assertThatThrownBy(() -> ChangeFeed.Watermark.decode("not a watermark"))
+                .isInstanceOf(ServerWebInputException.class);
+    }
+}
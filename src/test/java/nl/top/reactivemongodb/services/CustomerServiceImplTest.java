@@ -2,10 +2,15 @@ package nl.top.reactivemongodb.services;
 
 import nl.top.reactivemongodb.domain.Customer;
 import nl.top.reactivemongodb.mapper.CustomerMapper;
+import nl.top.reactivemongodb.model.BatchItemError;
+import nl.top.reactivemongodb.model.CursorPage;
 import nl.top.reactivemongodb.model.CustomerDTO;
+import nl.top.reactivemongodb.model.MultiGetResult;
+import org.bson.types.ObjectId;
 import org.junit.jupiter.api.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Slice;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.server.ResponseStatusException;
 import reactor.core.publisher.Flux;
@@ -14,6 +19,7 @@ import reactor.test.StepVerifier;
 
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -249,4 +255,87 @@ class CustomerServiceImplTest {
                 .hasFieldOrPropertyWithValue("status", HttpStatus.NOT_FOUND)
                 .hasMessageContaining("Customer with ID " + testCustomer.getId() + " not found");
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Test list customers page by page without overlap")
+    void listCustomersPaged() {
+        getSavedCustomerDTO();
+        getSavedCustomerDTO();
+
+        CursorPage<CustomerDTO> firstPage = customerService.listCustomers(null, 2).block();
+        assertThat(firstPage).isNotNull();
+        assertThat(firstPage.getContent()).hasSize(2);
+        assertThat(firstPage.getNextCursor()).isNotNull();
+
+        CursorPage<CustomerDTO> secondPage = customerService.listCustomers(firstPage.getNextCursor(), 2).block();
+        assertThat(secondPage).isNotNull();
+        assertThat(secondPage.getContent()).isNotEmpty();
+        assertThat(secondPage.getContent()).extracting(CustomerDTO::getId)
+                .doesNotContainAnyElementsOf(firstPage.getContent().stream().map(CustomerDTO::getId).toList());
+    }
+
+    @Test
+    @DisplayName("Test save customers in chunks reporting the invalid ones")
+    void saveCustomersInBatch() {
+        CustomerDTO invalidCustomer = CustomerDTO.builder().customerName("Mo").build();
+
+        StepVerifier.create(customerService.saveCustomers(
+                        Flux.just(getTestCustomerDTO(), invalidCustomer, getTestCustomerDTO())))
+                .assertNext(result -> {
+                    assertThat(result.getReceived()).isEqualTo(3);
+                    assertThat(result.getSucceeded()).isEqualTo(2);
+                    assertThat(result.getFailures()).extracting(BatchItemError::getIndex).containsExactly(1L);
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Test get several customers by id reports the missing ones")
+    void getCustomersByIds() {
+        CustomerDTO savedCustomer = getSavedCustomerDTO();
+
+        MultiGetResult<CustomerDTO> result = customerService
+                .getCustomersByIds(List.of(savedCustomer.getId(), "unknown")).block();
+
+        assertThat(result).isNotNull();
+        assertThat(result.getItems()).extracting(CustomerDTO::getId).containsExactly(savedCustomer.getId());
+        assertThat(result.getMissing()).containsExactly("unknown");
+    }
+
+    @Test
+    @DisplayName("Test search customers puts the best match first")
+    void searchCustomers() {
+        getSavedCustomerDTO();
+
+        Slice<CustomerDTO> result = customerService.searchCustomers("newton olivia", 0, 5).block();
+
+        assertThat(result).isNotNull();
+        assertThat(result.getContent()).isNotEmpty();
+        assertThat(result.getContent().get(0).getCustomerName()).isEqualTo("Olivia Newton John");
+    }
+
+    @Test
+    @DisplayName("Test a new customer or an unknown id is inserted whatever version it carries")
+    void saveWithVersionOfUnstoredCustomer() {
+        CustomerDTO withoutId = getTestCustomerDTO();
+        withoutId.setVersion(3L);
+        CustomerDTO unknownId = getTestCustomerDTO();
+        unknownId.setId(new ObjectId().toHexString());
+        unknownId.setVersion(3L);
+
+        assertThat(customerService.saveCustomer(Mono.just(withoutId)).block().getId()).isNotNull();
+        assertThat(customerService.saveCustomer(Mono.just(unknownId)).block().getId()).isEqualTo(unknownId.getId());
+    }
+
+    @Test
+    @DisplayName("Test a customer saved again under a deleted id continues after the version it had")
+    void recreatedCustomerKeepsCountingVersions() {
+        CustomerDTO savedCustomer = getSavedCustomerDTO();
+        customerService.deleteCustomerById(savedCustomer.getId()).block();
+        CustomerDTO recreated = getTestCustomerDTO();
+        recreated.setId(savedCustomer.getId());
+
+        assertThat(customerService.saveCustomer(Mono.just(recreated)).block().getVersion())
+                .isEqualTo(savedCustomer.getVersion() + 1);
+    }
+}
@@ -0,0 +1,70 @@
+package nl.top.reactivemongodb.services;
+
+import nl.top.reactivemongodb.domain.Beer;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.web.server.ServerWebInputException;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+class IndexedFieldsTest {
+
+    IndexedFields indexedFields = indexedFields();
+
+    private static IndexedFields indexedFields() {
+        MongoMappingContext mappingContext = new MongoMappingContext();
+        mappingContext.setSimpleTypeHolder(new MongoCustomConversions(List.of()).getSimpleTypeHolder());
+        ReactiveMongoTemplate reactiveMongoTemplate = mock(ReactiveMongoTemplate.class);
+        when(reactiveMongoTemplate.getConverter())
+                .thenReturn(new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, mappingContext));
+        return new IndexedFields(reactiveMongoTemplate);
+    }
+
+    private void assertRejected(Query filter, String sortField) {
+        assertThatThrownBy(() -> indexedFields.requireIndexed(Beer.class, filter, Sort.by(sortField)))
+                .isInstanceOf(ServerWebInputException.class);
+    }
+
+    @Test
+    @DisplayName("Test a sort without a filter needs an index that starts with the sort field")
+    void sortWithoutFilter() {
+        assertThat(indexedFields.requireIndexed(Beer.class, Sort.by("price"))).isEqualTo(Sort.by("price"));
+        assertThat(indexedFields.requireIndexed(Beer.class, Sort.by(Sort.Direction.DESC, "id"))).isNotNull();
+        assertRejected(new Query(), "quantityOnHand");
+    }
+
+    @Test
+    @DisplayName("Test a sort after an equality filter needs an index on the filter followed by the sort field")
+    void sortAfterEquality() {
+        Query ipas = query(where("beerStyle").in(List.of("IPA")));
+
+        assertThat(indexedFields.requireIndexed(Beer.class, ipas, Sort.by("price"))).isEqualTo(Sort.by("price"));
+        assertThat(indexedFields.requireIndexed(Beer.class, ipas, Sort.by("beerName"))).isEqualTo(Sort.by("beerName"));
+        assertRejected(query(where("upc").is("123")), "price");
+        assertThat(indexedFields.requireIndexed(Beer.class, query(where("upc").is("123")), Sort.by("upc"))).isNotNull();
+    }
+
+    @Test
+    @DisplayName("Test a sort with a range filter on another field is rejected")
+    void sortWithRange() {
+        Query minPrice = query(where("price").gte(new BigDecimal("5")));
+
+        assertThat(indexedFields.requireIndexed(Beer.class, minPrice, Sort.by("price"))).isEqualTo(Sort.by("price"));
+        assertRejected(minPrice, "beerName");
+    }
+}
@@ -0,0 +1,58 @@
+package nl.top.reactivemongodb.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RequestCoalescerTest {
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    RequestCoalescer<String, String> coalescer = new RequestCoalescer<>("test", meterRegistry);
+
+    private double requests(String outcome) {
+        return meterRegistry.get("coalescer.requests").tag("name", "test").tag("outcome", outcome).counter().count();
+    }
+
+    @Test
+    @DisplayName("Test concurrent lookups for the same key share one query")
+    void concurrentLookupsShareOneQuery() {
+        AtomicInteger queries = new AtomicInteger();
+        Sinks.One<String> result = Sinks.one();
+
+        Mono<String> first = coalescer.execute("Galaxy Cat", key -> {
+            queries.incrementAndGet();
+            return result.asMono();
+        });
+        Mono<String> second = coalescer.execute("Galaxy Cat", key -> {
+            queries.incrementAndGet();
+            return result.asMono();
+        });
+
+        StepVerifier.create(Mono.zip(first, second))
+                .then(() -> result.tryEmitValue("beer"))
+                .assertNext(both -> assertThat(both.getT1()).isEqualTo(both.getT2()))
+                .verifyComplete();
+        assertThat(queries).hasValue(1);
+        assertThat(requests("executed")).isEqualTo(1);
+        assertThat(requests("coalesced")).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Test a lookup after the previous one completed runs a new query")
+    void completedLookupIsNotReused() {
+        AtomicInteger queries = new AtomicInteger();
+
+        coalescer.execute("Crank", key -> Mono.fromCallable(queries::incrementAndGet).map(String::valueOf)).block();
+        coalescer.execute("Crank", key -> Mono.fromCallable(queries::incrementAndGet).map(String::valueOf)).block();
+
+        assertThat(queries).hasValue(2);
+        assertThat(requests("coalesced")).isZero();
+    }
+}
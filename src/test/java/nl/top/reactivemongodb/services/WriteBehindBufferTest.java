@@ -0,0 +1,143 @@
+package nl.top.reactivemongodb.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+class WriteBehindBufferTest {
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    List<Map<String, Long>> writes = new CopyOnWriteArrayList<>();
+    //beers in here fail to write once
+    List<String> failing = new CopyOnWriteArrayList<>();
+    WriteBehindBuffer<String> buffer = new WriteBehindBuffer<>("test", this::write, 3, Duration.ofHours(1), meterRegistry);
+
+    private Mono<Map<String, Long>> write(Map<String, Long> deltas) {
+        writes.add(Map.copyOf(deltas));
+        Map<String, Long> unapplied = new HashMap<>();
+        deltas.forEach((key, delta) -> {
+            if (failing.remove(key)) {
+                unapplied.put(key, delta);
+            }
+        });
+        return Mono.just(unapplied);
+    }
+
+    @AfterEach
+    void tearDown() {
+        buffer.close();
+    }
+
+    @Test
+    @DisplayName("Test deltas for the same key are written as one")
+    void deltasForOneKeyAreMerged() {
+        buffer.add("beer", 1);
+        buffer.add("beer", 1);
+        buffer.add("beer", -3);
+        buffer.add("other", 2);
+
+        buffer.flush().block();
+
+        assertThat(writes).containsExactly(Map.of("beer", -1L, "other", 2L));
+        assertThat(buffer.pendingCount()).isZero();
+        assertThat(meterRegistry.get("write.behind.flush").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Test deltas that cancel out are not written")
+    void cancellingDeltasAreDropped() {
+        buffer.add("beer", 1);
+        buffer.add("beer", -1);
+
+        buffer.flush().block();
+
+        assertThat(writes).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Test reaching the maximum pending keys flushes without waiting for the interval")
+    void fullBufferIsFlushed() {
+        buffer.add("1", 1);
+        buffer.add("2", 1);
+        assertThat(meterRegistry.get("write.behind.pending").gauge().value()).isEqualTo(2);
+
+        buffer.add("3", 1);
+
+        await().atMost(Duration.ofSeconds(5)).until(() -> !writes.isEmpty());
+        assertThat(writes.get(0)).containsOnlyKeys("1", "2", "3");
+    }
+
+    @Test
+    @DisplayName("Test deltas that could not be written are kept for the next flush")
+    void unappliedDeltasAreKept() {
+        failing.add("beer");
+        buffer.add("beer", 2);
+        buffer.add("other", 1);
+
+        buffer.flush().block();
+        buffer.add("beer", 1);
+        buffer.flush().block();
+
+        assertThat(writes).containsExactly(Map.of("beer", 2L, "other", 1L), Map.of("beer", 3L));
+    }
+
+    @Test
+    @DisplayName("Test a writer that throws instead of erroring keeps the batch for the next flush")
+    void throwingWriterKeepsDeltas() {
+        List<Map<String, Long>> attempts = new CopyOnWriteArrayList<>();
+        WriteBehindBuffer<String> throwingBuffer = new WriteBehindBuffer<>("throwing", deltas -> {
+            attempts.add(Map.copyOf(deltas));
+            if (attempts.size() == 1) {
+                throw new ArithmeticException("integer overflow");
+            }
+            return Mono.just(Map.of());
+        }, 10, Duration.ofHours(1), meterRegistry);
+        throwingBuffer.add("beer", 5);
+
+        throwingBuffer.flush().block();
+        throwingBuffer.add("other", 1);
+        throwingBuffer.flush().block();
+
+        assertThat(attempts).containsExactly(Map.of("beer", 5L), Map.of("beer", 5L, "other", 1L));
+        throwingBuffer.close();
+    }
+
+    @Test
+    @DisplayName("Test closing the buffer writes what is still pending")
+    void closeFlushes() {
+        buffer.add("beer", 5);
+
+        buffer.close();
+
+        assertThat(writes).containsExactly(Map.of("beer", 5L));
+    }
+
+    @Test
+    @DisplayName("Test closing the buffer waits for a flush that is still running")
+    void closeWaitsForRunningFlush() {
+        List<Map<String, Long>> written = new CopyOnWriteArrayList<>();
+        WriteBehindBuffer<String> slowBuffer = new WriteBehindBuffer<>("slow", deltas -> {
+            writes.add(deltas);
+            return Mono.delay(Duration.ofMillis(300))
+                    .doOnNext(tick -> written.add(deltas))
+                    .thenReturn(Map.of());
+        }, 1, Duration.ofHours(1), meterRegistry);
+        slowBuffer.add("beer", 5);
+        await().atMost(Duration.ofSeconds(5)).until(() -> !writes.isEmpty());
+
+        slowBuffer.close();
+
+        assertThat(written).containsExactly(Map.of("beer", 5L));
+    }
+}
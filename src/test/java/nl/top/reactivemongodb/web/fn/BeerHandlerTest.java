@@ -1,22 +1,41 @@
 package nl.top.reactivemongodb.web.fn;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import nl.top.reactivemongodb.domain.BeerStyle;
 import nl.top.reactivemongodb.model.BeerDTO;
+import nl.top.reactivemongodb.model.StockAdjustmentDTO;
+import nl.top.reactivemongodb.model.StockDeltaDTO;
 import nl.top.reactivemongodb.services.BeerService;
+import nl.top.reactivemongodb.web.fn.handlers.ResourceHandler;
 import org.junit.jupiter.api.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.math.BigDecimal;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
 
+import static nl.top.reactivemongodb.web.fn.config.BeerRouterConfig.BEER_AUTOCOMPLETE_PATH;
+import static nl.top.reactivemongodb.web.fn.config.BeerRouterConfig.BEER_FEED_PATH;
 import static nl.top.reactivemongodb.web.fn.config.BeerRouterConfig.BEER_PATH;
 import static nl.top.reactivemongodb.web.fn.config.BeerRouterConfig.BEER_PATH_ID;
+import static nl.top.reactivemongodb.web.fn.config.BeerRouterConfig.BEER_STATS_PATH;
+import static nl.top.reactivemongodb.web.fn.config.BeerRouterConfig.BEER_STOCK_PATH;
+import static nl.top.reactivemongodb.web.fn.config.BeerRouterConfig.INVENTORY_SUMMARY_PATH;
+import static nl.top.reactivemongodb.web.fn.config.GenericRouterConfig.APPLICATION_SMILE;
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.springframework.security.test.web.reactive.server.SecurityMockServerConfigurers.mockOAuth2Login;
 
 @SpringBootTest
@@ -30,6 +49,9 @@ class BeerHandlerTest {
     @Autowired
     BeerService beerService;
 
+    @Autowired
+    MeterRegistry meterRegistry;
+
     public BeerDTO getSavedBeerDTO() {
         return beerService.saveBeer(Mono.just(getTestBeer())).block();
     }
@@ -281,4 +303,511 @@ class BeerHandlerTest {
                 .exchange()
                 .expectStatus().isNotFound();
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Test get list of beers page by page using the cursor")
+    void listBeersPaged() {
+        getSavedBeerDTO();
+        getSavedBeerDTO();
+
+        String nextCursor = webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(UriComponentsBuilder
+                        .fromPath(BEER_PATH)
+                        .queryParam("size", 1).build().toUri())
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().exists(HttpHeaders.LINK)
+                .expectBody().jsonPath("$.size()").isEqualTo(1)
+                .returnResult().getResponseHeaders().getFirst(ResourceHandler.NEXT_CURSOR_HEADER);
+
+        webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(UriComponentsBuilder
+                        .fromPath(BEER_PATH)
+                        .queryParam("size", 1)
+                        .queryParam("cursor", nextCursor).build().toUri())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.size()").isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Test get list of beers with an invalid cursor")
+    void listBeersWithInvalidCursor() {
+        webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(UriComponentsBuilder
+                        .fromPath(BEER_PATH)
+                        .queryParam("cursor", "not-a-cursor").build().toUri())
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    @DisplayName("Test stream the list of beers as NDJSON")
+    void streamBeersAsNdjson() {
+        webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(BEER_PATH)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+                .expectBodyList(BeerDTO.class).value(hasSize(greaterThan(2)));
+    }
+
+    @Test
+    @DisplayName("Test stream the list of beers as server-sent events")
+    void streamBeersAsServerSentEvents() {
+        webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(BEER_PATH)
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.TEXT_EVENT_STREAM);
+    }
+
+    @Test
+    @DisplayName("Test create beers in one batch reporting the invalid ones")
+    void createBeerBatch() {
+        BeerDTO badBeer = getTestBeer();
+        badBeer.setBeerName("");
+
+        webTestClient.mutateWith(mockOAuth2Login())
+                .post().uri(BEER_PATH + "/batch")
+                .body(Flux.just(getTestBeer(), badBeer, getTestBeer()), BeerDTO.class)
+                .header("Content-type", "application/json")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.received").isEqualTo(3)
+                .jsonPath("$.succeeded").isEqualTo(2)
+                .jsonPath("$.failures.size()").isEqualTo(1)
+                .jsonPath("$.failures[0].index").isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Test get several beers by id in the requested order")
+    void getBeersByIds() {
+        BeerDTO first = getSavedBeerDTO();
+        BeerDTO second = getSavedBeerDTO();
+        String unknownId = "6613f0d2c1f3a50f0c1b2a99";
+
+        webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(UriComponentsBuilder
+                        .fromPath(BEER_PATH)
+                        .queryParam("ids", String.join(",", second.getId(), unknownId, first.getId()))
+                        .build().toUri())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.items.size()").isEqualTo(2)
+                .jsonPath("$.items[0].id").isEqualTo(second.getId())
+                .jsonPath("$.items[1].id").isEqualTo(first.getId())
+                .jsonPath("$.missing[0]").isEqualTo(unknownId);
+    }
+
+    @Test
+    @DisplayName("Test get beer statistics per style")
+    void getBeerStyleStats() {
+        getSavedBeerDTO();
+
+        webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(BEER_STATS_PATH)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.size()").value(greaterThan(0))
+                .jsonPath("$[0].beerStyle").exists()
+                .jsonPath("$[0].count").exists();
+    }
+
+    @Test
+    @DisplayName("Test get beer statistics with an invalid date")
+    void getBeerStyleStatsWithInvalidDate() {
+        webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(BEER_STATS_PATH + "?from=yesterday")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    @DisplayName("Test get the inventory summary")
+    void getInventorySummary() {
+        getSavedBeerDTO();
+
+        webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(INVENTORY_SUMMARY_PATH)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[?(@.scope == 'ALL')].beerCount").exists();
+    }
+
+    @Test
+    @DisplayName("Test decrement more stock than is on hand")
+    void decrementStockBeyondQuantityOnHand() {
+        BeerDTO testBeer = getSavedBeerDTO();
+
+        webTestClient.mutateWith(mockOAuth2Login())
+                .post().uri(BEER_STOCK_PATH + "/decrement", testBeer.getId())
+                .body(Mono.just(StockAdjustmentDTO.builder().quantity(testBeer.getQuantityOnHand() + 1).build()),
+                        StockAdjustmentDTO.class)
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.CONFLICT);
+
+        webTestClient.mutateWith(mockOAuth2Login())
+                .post().uri(BEER_STOCK_PATH + "/decrement", testBeer.getId())
+                .body(Mono.just(StockAdjustmentDTO.builder().quantity(1).build()), StockAdjustmentDTO.class)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.quantityOnHand").isEqualTo(testBeer.getQuantityOnHand() - 1);
+    }
+
+    @Test
+    @DisplayName("Test a stock adjustment is applied right away when write-behind is off")
+    void adjustStock() {
+        BeerDTO testBeer = getSavedBeerDTO();
+
+        webTestClient.mutateWith(mockOAuth2Login())
+                .post().uri(BEER_STOCK_PATH + "/adjustments", testBeer.getId())
+                .body(Mono.just(StockDeltaDTO.builder().delta(-2).build()), StockDeltaDTO.class)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.quantityOnHand").isEqualTo(testBeer.getQuantityOnHand() - 2);
+    }
+
+    @Test
+    @DisplayName("Test search beers by a word of the name")
+    void searchBeers() {
+        getSavedBeerDTO();
+
+        webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(BEER_PATH + "/search?q=dust&size=1")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().exists(HttpHeaders.LINK)
+                .expectBody()
+                .jsonPath("$.size()").isEqualTo(1)
+                .jsonPath("$[0].beerName").isEqualTo("Space Dust");
+    }
+
+    @Test
+    @DisplayName("Test search beers without a query")
+    void searchBeersWithoutQuery() {
+        webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(BEER_PATH + "/search")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    @DisplayName("Test autocomplete beer names from a prefix")
+    void autocompleteBeerName() {
+        BeerDTO beer = getTestBeer();
+        beer.setBeerName("Autocomplete " + UUID.randomUUID());
+        BeerDTO testBeer = beerService.saveBeer(beer).block();
+
+        webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(BEER_AUTOCOMPLETE_PATH + "?prefix=" + testBeer.getBeerName().toUpperCase())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.size()").isEqualTo(1)
+                .jsonPath("$[0].id").isEqualTo(testBeer.getId());
+
+        webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(BEER_AUTOCOMPLETE_PATH + "?prefix=a&limit=500")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.size()").value(lessThanOrEqualTo(50));
+    }
+
+    @Test
+    @DisplayName("Test filter beers on style and price range")
+    void filterBeers() {
+        BeerDTO beer = getTestBeer();
+        beer.setUpc(UUID.randomUUID().toString());
+        beerService.saveBeer(beer).block();
+
+        webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(UriComponentsBuilder
+                        .fromPath(BEER_PATH)
+                        .queryParam("upc", beer.getUpc())
+                        .queryParam("beerStyle", "IPA,STOUT")
+                        .queryParam("minPrice", "9.99")
+                        .queryParam("maxPrice", "10.01").build().toUri())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.size()").isEqualTo(1);
+
+        webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(UriComponentsBuilder
+                        .fromPath(BEER_PATH)
+                        .queryParam("upc", beer.getUpc())
+                        .queryParam("maxPrice", "9").build().toUri())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.size()").isEqualTo(0);
+    }
+
+    @Test
+    @DisplayName("Test filter beers on a parameter that is not supported")
+    void filterBeersOnUnknownParameter() {
+        webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(BEER_PATH + "?color=amber")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    @DisplayName("Test filter beers only on a field without an index")
+    void filterBeersWithoutIndexedField() {
+        webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(BEER_PATH + "?minQuantityOnHand=1")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    @DisplayName("Test get the most expensive beers first")
+    void sortBeersByPrice() {
+        //a price range of its own, the price index serves the range and the sort
+        BigDecimal base = new BigDecimal(ThreadLocalRandom.current().nextInt(1_000_000, 2_000_000));
+        BeerDTO cheap = getTestBeer();
+        cheap.setPrice(base.add(new BigDecimal("3.50")));
+        BeerDTO expensive = getTestBeer();
+        expensive.setPrice(base.add(new BigDecimal("12.50")));
+        String cheapId = beerService.saveBeer(cheap).block().getId();
+        String expensiveId = beerService.saveBeer(expensive).block().getId();
+
+        webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(UriComponentsBuilder
+                        .fromPath(BEER_PATH)
+                        .queryParam("minPrice", base)
+                        .queryParam("maxPrice", base.add(BigDecimal.TEN.add(BigDecimal.TEN)))
+                        .queryParam("sort", "price,desc").build().toUri())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2)
+                .jsonPath("$[0].id").isEqualTo(expensiveId)
+                .jsonPath("$[1].id").isEqualTo(cheapId);
+    }
+
+    @Test
+    @DisplayName("Test sort beers on a field no index has after the filter")
+    void sortBeersAfterFilterWithoutIndex() {
+        webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(BEER_PATH + "?upc=123&sort=price")
+                .exchange()
+                .expectStatus().isBadRequest();
+        webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(BEER_PATH + "?minPrice=5&sort=beerName")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    @DisplayName("Test sort beers on a field without an index")
+    void sortBeersWithoutIndex() {
+        webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(BEER_PATH + "?sort=quantityOnHand")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    @DisplayName("Test get only the requested fields of the beers")
+    void listBeerFields() {
+        BeerDTO testBeer = getSavedBeerDTO();
+
+        webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(UriComponentsBuilder
+                        .fromPath(BEER_PATH)
+                        .queryParam("upc", testBeer.getUpc())
+                        .queryParam("fields", "id,beerName").build().toUri())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[0].id").exists()
+                .jsonPath("$[0].beerName").isEqualTo(testBeer.getBeerName())
+                .jsonPath("$[0].price").doesNotExist()
+                .jsonPath("$[0].beerStyle").doesNotExist();
+
+        webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(BEER_PATH + "?fields=colour")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    @DisplayName("Test get beer by id again with its ETag")
+    void getBeerByIdNotModified() {
+        BeerDTO testBeer = getSavedBeerDTO();
+
+        String eTag = webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(BEER_PATH_ID, testBeer.getId())
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().exists(HttpHeaders.ETAG)
+                .expectHeader().exists(HttpHeaders.LAST_MODIFIED)
+                .returnResult(BeerDTO.class).getResponseHeaders().getETag();
+
+        webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(BEER_PATH_ID, testBeer.getId())
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectBody().isEmpty();
+
+        beerService.patchBeerById(testBeer.getId(), BeerDTO.builder().beerName("Patched Dust").build()).block();
+
+        webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(BEER_PATH_ID, testBeer.getId())
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.beerName").isEqualTo("Patched Dust");
+    }
+
+    @Test
+    @DisplayName("Test get list of beers again while no beer changed")
+    void listBeersNotModified() {
+        String eTag = webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(BEER_PATH)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(BeerDTO.class).getResponseHeaders().getETag();
+
+        webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(BEER_PATH)
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus().isNotModified();
+
+        getSavedBeerDTO();
+
+        webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(BEER_PATH)
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus().isOk();
+    }
+
+    @Test
+    @DisplayName("Test update a beer with If-Match, a stale version is refused")
+    void updateBeerIfMatch() {
+        BeerDTO testBeer = getSavedBeerDTO();
+        String eTag = "\"" + testBeer.getVersion() + "\"";
+        testBeer.setBeerName("If-Match Dust");
+
+        String newETag = webTestClient.mutateWith(mockOAuth2Login())
+                .put().uri(BEER_PATH_ID, testBeer.getId())
+                .header(HttpHeaders.IF_MATCH, eTag)
+                .body(Mono.just(testBeer), BeerDTO.class)
+                .exchange()
+                .expectStatus().isNoContent()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, "\"" + (testBeer.getVersion() + 1) + "\"")
+                .returnResult(Void.class).getResponseHeaders().getETag();
+
+        webTestClient.mutateWith(mockOAuth2Login())
+                .put().uri(BEER_PATH_ID, testBeer.getId())
+                .header(HttpHeaders.IF_MATCH, eTag)
+                .body(Mono.just(testBeer), BeerDTO.class)
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.PRECONDITION_FAILED);
+
+        webTestClient.mutateWith(mockOAuth2Login())
+                .delete().uri(BEER_PATH_ID, testBeer.getId())
+                .header(HttpHeaders.IF_MATCH, eTag)
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.PRECONDITION_FAILED);
+
+        webTestClient.mutateWith(mockOAuth2Login())
+                .delete().uri(BEER_PATH_ID, testBeer.getId())
+                .header(HttpHeaders.IF_MATCH, newETag)
+                .exchange()
+                .expectStatus().isNoContent();
+    }
+
+    @Test
+    @DisplayName("Test get the changes of the beers with an invalid watermark")
+    void changesWithInvalidWatermark() {
+        webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(BEER_PATH + "/changes?since=not-a-watermark")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    @DisplayName("Test get the first page of changes of the beers")
+    void changesFromTheStart() {
+        webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(BEER_PATH + "/changes?size=1")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.changed.size()").isEqualTo(1)
+                .jsonPath("$.watermark").isNotEmpty()
+                .jsonPath("$.hasMore").isEqualTo(true);
+    }
+
+    @Test
+    @DisplayName("Test the live beer feed is unavailable without change streams")
+    void feedWithoutChangeStreams() {
+        webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(BEER_FEED_PATH + "?beerStyle=IPA")
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    @Test
+    @DisplayName("Test the live beer feed rejects an unknown overflow policy")
+    void feedWithInvalidOverflow() {
+        webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(BEER_FEED_PATH + "?overflow=block")
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    @DisplayName("Test get a beer by id as CBOR and publish its encode measurements")
+    void getBeerByIdAsCbor() {
+        BeerDTO beerDTO = getSavedBeerDTO();
+
+        webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(BEER_PATH_ID, beerDTO.getId())
+                .accept(MediaType.APPLICATION_CBOR)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_CBOR)
+                .expectBody(BeerDTO.class)
+                .value(beer -> assertThat(beer.getBeerName()).isEqualTo(beerDTO.getBeerName()));
+
+        assertThat(meterRegistry.get("http.server.encode.size").tag("format", "cbor").tag("type", "BeerDTO")
+                .summary().count()).isPositive();
+    }
+
+    @Test
+    @DisplayName("Test create a beer from a Smile body and list the beers as Smile")
+    void createAndListAsSmile() {
+        webTestClient.mutateWith(mockOAuth2Login())
+                .post().uri(BEER_PATH)
+                .contentType(APPLICATION_SMILE)
+                .body(Mono.just(getTestBeer()), BeerDTO.class)
+                .exchange()
+                .expectStatus().isCreated();
+
+        webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(BEER_PATH + "?size=5")
+                .accept(APPLICATION_SMILE)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(APPLICATION_SMILE)
+                .expectBodyList(BeerDTO.class)
+                .value(beers -> assertThat(beers).isNotEmpty());
+    }
+}
@@ -6,12 +6,15 @@ import org.junit.jupiter.api.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import reactor.core.publisher.Mono;
 
 import static nl.top.reactivemongodb.web.fn.config.CustomerRouterConfig.CUSTOMER_PATH;
 import static nl.top.reactivemongodb.web.fn.config.CustomerRouterConfig.CUSTOMER_PATH_ID;
 import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasSize;
 import static org.springframework.security.test.web.reactive.server.SecurityMockServerConfigurers.mockOAuth2Login;
 
 @SpringBootTest
@@ -196,4 +199,38 @@ class CustomerHandlerTest {
                 .exchange()
                 .expectStatus().isNotFound();
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Test stream the list of customers as NDJSON")
+    void streamCustomersAsNdjson() {
+        webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(CUSTOMER_PATH)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+                .expectBodyList(CustomerDTO.class).value(hasSize(greaterThan(1)));
+    }
+
+    @Test
+    @DisplayName("Test a sorted list is one page without a next cursor")
+    void sortCustomersByName() {
+        getSavedCustomerDTO();
+
+        webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(CUSTOMER_PATH + "?sort=customerName,desc&size=1")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().doesNotExist(HttpHeaders.LINK)
+                .expectBody().jsonPath("$.size()").isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Test a sorted list can not be combined with a cursor")
+    void sortCustomersWithCursor() {
+        webTestClient.mutateWith(mockOAuth2Login())
+                .get().uri(CUSTOMER_PATH + "?sort=customerName&cursor=abc")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+}
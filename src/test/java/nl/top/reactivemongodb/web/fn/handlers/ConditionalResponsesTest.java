@@ -0,0 +1,116 @@
+package nl.top.reactivemongodb.web.fn.handlers;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.reactive.function.server.MockServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ConditionalResponsesTest {
+
+    private static final Instant LAST_MODIFIED = Instant.parse("2024-04-11T10:15:30.250Z");
+
+    private static String httpDate(Instant instant) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.ofInstant(instant, ZoneOffset.UTC));
+    }
+
+    @Test
+    @DisplayName("Test If-None-Match is compared weakly and accepts a list of tags")
+    void matchesETag() {
+        MockServerRequest request = MockServerRequest.builder()
+                .header(HttpHeaders.IF_NONE_MATCH, "\"other\", W/\"abc\"")
+                .build();
+
+        assertThat(ConditionalResponses.isNotModified(request, "\"abc\"", null)).isTrue();
+        assertThat(ConditionalResponses.isNotModified(request, "\"def\"", null)).isFalse();
+    }
+
+    @Test
+    @DisplayName("Test If-Modified-Since is compared in whole seconds")
+    void matchesLastModified() {
+        MockServerRequest sameSecond = MockServerRequest.builder()
+                .header(HttpHeaders.IF_MODIFIED_SINCE, httpDate(LAST_MODIFIED))
+                .build();
+        MockServerRequest before = MockServerRequest.builder()
+                .header(HttpHeaders.IF_MODIFIED_SINCE, httpDate(LAST_MODIFIED.minusSeconds(1)))
+                .build();
+
+        assertThat(ConditionalResponses.isNotModified(sameSecond, "\"abc\"", LAST_MODIFIED)).isTrue();
+        assertThat(ConditionalResponses.isNotModified(before, "\"abc\"", LAST_MODIFIED)).isFalse();
+    }
+
+    @Test
+    @DisplayName("Test If-None-Match wins over If-Modified-Since")
+    void eTagWinsOverLastModified() {
+        MockServerRequest request = MockServerRequest.builder()
+                .header(HttpHeaders.IF_NONE_MATCH, "\"stale\"")
+                .header(HttpHeaders.IF_MODIFIED_SINCE, httpDate(LAST_MODIFIED))
+                .build();
+
+        assertThat(ConditionalResponses.isNotModified(request, "\"abc\"", LAST_MODIFIED)).isFalse();
+    }
+
+    @Test
+    @DisplayName("Test If-Match is read as the expected versions")
+    void readsExpectedVersions() {
+        ConditionalResponses conditionalResponses = new ConditionalResponses();
+
+        assertThat(conditionalResponses.expectedVersions(MockServerRequest.builder().build())).isEmpty();
+        assertThat(conditionalResponses.expectedVersions(MockServerRequest.builder()
+                .header(HttpHeaders.IF_MATCH, "*").build())).isEmpty();
+        assertThat(conditionalResponses.expectedVersions(MockServerRequest.builder()
+                .header(HttpHeaders.IF_MATCH, "\"3\", \"4\"").build())).containsExactly(3L, 4L);
+        assertThat(conditionalResponses.expectedVersions(MockServerRequest.builder()
+                .header(HttpHeaders.IF_MATCH, "\"3-cbor\"").build())).containsExactly(3L);
+        assertThatThrownBy(() -> conditionalResponses.expectedVersions(MockServerRequest.builder()
+                .header(HttpHeaders.IF_MATCH, "W/\"3\"").build()))
+                .isInstanceOf(ResponseStatusException.class);
+    }
+
+    @Test
+    @DisplayName("Test the ETag depends on the negotiated format")
+    void eTagPerFormat() {
+        assertThat(ConditionalResponses.formatSuffix(MockServerRequest.builder().build())).isEmpty();
+        assertThat(ConditionalResponses.formatSuffix(MockServerRequest.builder()
+                .header(HttpHeaders.ACCEPT, "*/*").build())).isEmpty();
+        assertThat(ConditionalResponses.formatSuffix(MockServerRequest.builder()
+                .header(HttpHeaders.ACCEPT, "application/cbor").build())).isEqualTo("-cbor");
+        assertThat(ConditionalResponses.formatSuffix(MockServerRequest.builder()
+                .header(HttpHeaders.ACCEPT, "application/json;q=0.5, application/x-jackson-smile").build())).isEqualTo("-smile");
+    }
+
+    @Test
+    @DisplayName("Test the list ETag depends on the query, not on the order of its parameters")
+    void listETagPerQuery() {
+        String byPrice = ConditionalResponses.listETag(MockServerRequest.builder()
+                .queryParam("sort", "price").queryParam("size", "5").build(), "3-1700000000000");
+        String byPriceReordered = ConditionalResponses.listETag(MockServerRequest.builder()
+                .queryParam("size", "5").queryParam("sort", "price").build(), "3-1700000000000");
+        String byName = ConditionalResponses.listETag(MockServerRequest.builder()
+                .queryParam("sort", "beerName").queryParam("size", "5").build(), "3-1700000000000");
+        String unfiltered = ConditionalResponses.listETag(MockServerRequest.builder().build(), "3-1700000000000");
+
+        assertThat(byPrice).startsWith("W/\"").isEqualTo(byPriceReordered);
+        assertThat(byName).isNotEqualTo(byPrice);
+        assertThat(unfiltered).isNotEqualTo(byPrice).isNotEqualTo(byName);
+    }
+
+    @Test
+    @DisplayName("Test an entity response varies by Accept and Accept-Encoding")
+    void entityVaries() {
+        ServerResponse response = new ConditionalResponses().entity(MockServerRequest.builder()
+                .header(HttpHeaders.ACCEPT, "application/cbor").build(), "body", 3L, null).block();
+
+        assertThat(response.headers().getETag()).isEqualTo("\"3-cbor\"");
+        assertThat(response.headers().getVary()).containsExactly(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING);
+    }
+}
@@ -0,0 +1,94 @@
+package nl.top.reactivemongodb.web.rsocket;
+
+import nl.top.reactivemongodb.domain.BeerStyle;
+import nl.top.reactivemongodb.model.BatchResult;
+import nl.top.reactivemongodb.model.BeerDTO;
+import nl.top.reactivemongodb.model.MultiGetResult;
+import nl.top.reactivemongodb.services.BeerService;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.math.BigDecimal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BeerRSocketControllerTest extends RSocketControllerTestSupport {
+
+    @Autowired
+    BeerService beerService;
+
+    private BeerDTO getSavedBeerDTO() {
+        return beerService.saveBeer(BeerDTO.builder()
+                .beerName("Space Dust")
+                .beerStyle(BeerStyle.IPA)
+                .price(new BigDecimal(10))
+                .quantityOnHand(256)
+                .upc("ipa")
+                .build()).block();
+    }
+
+    @Test
+    @DisplayName("Test get a beer by id with request-response")
+    void getBeerById() {
+        BeerDTO beerDTO = getSavedBeerDTO();
+
+        BeerDTO found = requester.route("beer.get").data(beerDTO.getId()).retrieveMono(BeerDTO.class).block();
+
+        assertThat(found.getBeerName()).isEqualTo("Space Dust");
+    }
+
+    @Test
+    @DisplayName("Test stream the beers of a style with request-stream")
+    void findByBeerStyle() {
+        getSavedBeerDTO();
+
+        StepVerifier.create(requester.route("beer.list.style").data(BeerStyle.IPA).retrieveFlux(BeerDTO.class), 1)
+                .assertNext(beerDTO -> assertThat(beerDTO.getBeerStyle()).isEqualTo(BeerStyle.IPA))
+                .thenCancel()
+                .verify();
+    }
+
+    @Test
+    @DisplayName("Test look up a channel of ids, missing ids are reported")
+    void getBeersByIds() {
+        BeerDTO beerDTO = getSavedBeerDTO();
+
+        MultiGetResult<BeerDTO> result = requester.route("beer.lookup")
+                .data(Flux.just(beerDTO.getId(), "missing"))
+                .retrieveFlux(new ParameterizedTypeReference<MultiGetResult<BeerDTO>>() {
+                })
+                .blockFirst();
+
+        assertThat(result.getItems()).extracting(BeerDTO::getId).containsExactly(beerDTO.getId());
+        assertThat(result.getMissing()).containsExactly("missing");
+    }
+
+    @Test
+    @DisplayName("Test save a channel of new beers")
+    void saveBeers() {
+        BatchResult result = requester.route("beer.save")
+                .data(Flux.just(BeerDTO.builder().beerName("One").beerStyle(BeerStyle.ALE).price(BigDecimal.ONE).upc("1").build(),
+                        BeerDTO.builder().beerName("Two").beerStyle(BeerStyle.ALE).price(BigDecimal.ONE).upc("2").build()))
+                .retrieveFlux(BatchResult.class)
+                .blockLast();
+
+        assertThat(result.getSucceeded()).isEqualTo(2);
+        assertThat(result.getFailures()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Test a connection without a bearer token is rejected")
+    void rejectsWithoutToken() {
+        RSocketRequester anonymous = requester(null);
+
+        StepVerifier.create(anonymous.route("beer.list").retrieveFlux(BeerDTO.class))
+                .expectError()
+                .verify();
+        anonymous.dispose();
+    }
+}
@@ -0,0 +1,81 @@
+package nl.top.reactivemongodb.web.rsocket;
+
+import nl.top.reactivemongodb.model.BatchResult;
+import nl.top.reactivemongodb.model.CustomerDTO;
+import nl.top.reactivemongodb.model.MultiGetResult;
+import nl.top.reactivemongodb.services.CustomerService;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.ParameterizedTypeReference;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CustomerRSocketControllerTest extends RSocketControllerTestSupport {
+
+    @Autowired
+    CustomerService customerService;
+
+    private CustomerDTO getSavedCustomerDTO() {
+        return customerService.saveCustomer(CustomerDTO.builder().customerName("Olivia Newton John").build()).block();
+    }
+
+    @Test
+    @DisplayName("Test get a customer by id with request-response")
+    void getCustomerById() {
+        CustomerDTO customerDTO = getSavedCustomerDTO();
+
+        CustomerDTO found = requester.route("customer.get").data(customerDTO.getId()).retrieveMono(CustomerDTO.class).block();
+
+        assertThat(found.getCustomerName()).isEqualTo("Olivia Newton John");
+    }
+
+    @Test
+    @DisplayName("Test a missing customer ends the request with an error")
+    void getMissingCustomer() {
+        StepVerifier.create(requester.route("customer.get").data("missing").retrieveMono(CustomerDTO.class))
+                .expectError()
+                .verify();
+    }
+
+    @Test
+    @DisplayName("Test stream the customers with request-stream")
+    void listCustomers() {
+        getSavedCustomerDTO();
+
+        StepVerifier.create(requester.route("customer.list").retrieveFlux(CustomerDTO.class), 1)
+                .assertNext(customerDTO -> assertThat(customerDTO.getId()).isNotNull())
+                .thenCancel()
+                .verify();
+    }
+
+    @Test
+    @DisplayName("Test look up a channel of customer ids, missing ids are reported")
+    void getCustomersByIds() {
+        CustomerDTO customerDTO = getSavedCustomerDTO();
+
+        MultiGetResult<CustomerDTO> result = requester.route("customer.lookup")
+                .data(Flux.just(customerDTO.getId(), "missing"))
+                .retrieveFlux(new ParameterizedTypeReference<MultiGetResult<CustomerDTO>>() {
+                })
+                .blockFirst();
+
+        assertThat(result.getItems()).extracting(CustomerDTO::getId).containsExactly(customerDTO.getId());
+        assertThat(result.getMissing()).containsExactly("missing");
+    }
+
+    @Test
+    @DisplayName("Test save a channel of new customers, invalid ones are reported")
+    void saveCustomers() {
+        BatchResult result = requester.route("customer.save")
+                .data(Flux.just(CustomerDTO.builder().customerName("Freddie Mercury").build(),
+                        CustomerDTO.builder().customerName("X").build()))
+                .retrieveFlux(BatchResult.class)
+                .blockLast();
+
+        assertThat(result.getSucceeded()).isEqualTo(1);
+        assertThat(result.getFailures()).hasSize(1);
+    }
+}
@@ -0,0 +1,64 @@
+package nl.top.reactivemongodb.web.rsocket;
+
+import io.rsocket.metadata.WellKnownMimeType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.rsocket.server.LocalRSocketServerPort;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import org.springframework.security.rsocket.metadata.BearerTokenAuthenticationEncoder;
+import org.springframework.security.rsocket.metadata.BearerTokenMetadata;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+import reactor.core.publisher.Mono;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+//connects an authenticated requester to the RSocket server on a random port
+@SpringBootTest(properties = "spring.rsocket.server.port=0")
+abstract class RSocketControllerTestSupport {
+
+    static final MimeType AUTHENTICATION_MIME_TYPE =
+            MimeTypeUtils.parseMimeType(WellKnownMimeType.MESSAGE_RSOCKET_AUTHENTICATION.getString());
+
+    @LocalRSocketServerPort
+    int port;
+
+    @Autowired
+    RSocketStrategies rSocketStrategies;
+
+    //stands in for the issuer, every bearer token is accepted
+    @MockBean
+    ReactiveJwtDecoder jwtDecoder;
+
+    RSocketRequester requester;
+
+    @BeforeEach
+    void connect() {
+        when(jwtDecoder.decode(anyString())).thenAnswer(invocation -> Mono.just(Jwt.withTokenValue(invocation.getArgument(0))
+                .header("alg", "none")
+                .subject("test")
+                .build()));
+        requester = requester(new BearerTokenMetadata("token"));
+    }
+
+    @AfterEach
+    void disconnect() {
+        requester.dispose();
+    }
+
+    RSocketRequester requester(BearerTokenMetadata token) {
+        RSocketRequester.Builder builder = RSocketRequester.builder()
+                .rsocketStrategies(rSocketStrategies.mutate().encoder(new BearerTokenAuthenticationEncoder()).build());
+        if (token != null) {
+            builder.setupMetadata(token, AUTHENTICATION_MIME_TYPE);
+        }
+        return builder.tcp("localhost", port);
+    }
+}